@@ -0,0 +1,52 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.system.Database;
+
+/**
+ * Fills the profiles of {@value #USERS} users with a growing number of attributes and reports
+ * the heap they take per user, then times {@link Database#getUserAttribute} on the attribute
+ * set last and {@link Database#editProfile} on an existing attribute. Attribute names are built
+ * per call, as they arrive from the facade, so repeated names are separate strings.
+ */
+
+public class AttributeBenchmark {
+
+    private static final int[] ATTRIBUTES = {2, 8, 32};
+    private static final int USERS = 100_000;
+    private static final int QUERIES = 1_000_000;
+
+    public static void main(String[] args) {
+        for (int attributes : ATTRIBUTES) {
+            Database database = Bench.newDatabase();
+            String[] sessions = new String[USERS];
+            for (int i = 0; i < USERS; i++) {
+                database.newUser("user" + i, "password", "User " + i);
+                sessions[i] = database.startSession("user" + i, "password");
+            }
+
+            long before = usedHeap();
+            for (int i = 0; i < USERS; i++) {
+                for (int a = 0; a < attributes; a++) {
+                    database.editProfile(sessions[i], "atributo" + a, "valor" + a);
+                }
+            }
+            Bench.report("heap per user", attributes, (double) (usedHeap() - before) / USERS, "bytes");
+
+            String last = "atributo" + (attributes - 1);
+            Bench.report("getUserAttribute", attributes, Bench.nanosPerOp(QUERIES, i ->
+                    database.getUserAttribute("user" + (i % USERS), last)), "ns/op");
+            Bench.report("editProfile", attributes, Bench.nanosPerOp(QUERIES, i ->
+                    database.editProfile(sessions[i % USERS], last, "novo valor")), "ns/op");
+
+            database.flush();
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,40 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.facades.Facade;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares sending one recado to many recipients through repeated {@link Facade#enviarRecado}
+ * calls with a single {@link Facade#enviarRecados} call.
+ */
+
+public class BatchDeliveryBenchmark {
+
+    private static final int USERS = 100_000;
+    private static final int[] RECIPIENTS = {1_000, 10_000, 50_000};
+
+    public static void main(String[] args) {
+        Bench.newDatabase();
+        Facade facade = new Facade();
+        facade.zerarSistema();
+        for (int i = 0; i < USERS; i++) {
+            facade.criarUsuario("user" + i, "password", "User " + i);
+        }
+        String sender = facade.abrirSessao("user0", "password");
+
+        for (int count : RECIPIENTS) {
+            List<String> recipients = new ArrayList<>();
+            for (int i = 1; i <= count; i++) {
+                recipients.add("user" + i);
+            }
+            String batch = String.join(",", recipients);
+
+            Bench.report("enviarRecado loop", count, Bench.nanosPerOp(count,
+                    i -> facade.enviarRecado(sender, recipients.get(i), "Aviso")) / 1_000.0, "us/recipient");
+            Bench.report("enviarRecados batch", count, Bench.nanosPerOp(1,
+                    i -> facade.enviarRecados(sender, batch, "Aviso")) / 1_000.0 / count, "us/recipient");
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.facades.Facade;
+import br.ufal.ic.p2.jackut.system.Database;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Minimal timing helpers shared by the benchmarks.
+ * Benchmarks create a {@link br.ufal.ic.p2.jackut.system.Database}, which reads and
+ * writes its files in the working directory, so they must be run from an empty directory.
+ * <p>
+ * The project has no build tool to bring in JMH, so the benchmarks are plain programs timed
+ * with {@link System#nanoTime()}, kept out of the IDE module. They are compiled by hand
+ * against {@code src} and the jars in {@code lib}, and run through their {@code main} methods.
+ */
+
+public final class Bench {
+
+    private Bench() {
+    }
+
+    /**
+     * Creates a database for a benchmark. The operation log is disabled unless the
+     * {@code jackut.wal} property was set explicitly, so benchmarks measure the in-memory
+     * structures rather than the disk.
+     *
+     * @return A new database.
+     */
+
+    public static Database newDatabase() {
+        disableLog();
+        return new Database();
+    }
+
+    /**
+     * Creates a facade for a benchmark, with the operation log disabled as in {@link #newDatabase()}.
+     *
+     * @return A new facade.
+     */
+
+    public static Facade newFacade() {
+        disableLog();
+        return new Facade();
+    }
+
+    private static void disableLog() {
+        if (System.getProperty("jackut.wal") == null) {
+            System.setProperty("jackut.wal", "false");
+        }
+    }
+
+    /**
+     * Runs the operation a number of times to warm up, then times it.
+     *
+     * @param operations The number of times the operation is invoked per round.
+     * @param operation  The operation, receiving the iteration index.
+     * @return The average time per operation in nanoseconds.
+     */
+
+    public static double nanosPerOp(int operations, IntConsumer operation) {
+        for (int i = 0; i < operations; i++) {
+            operation.accept(i);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            operation.accept(i);
+        }
+        return (System.nanoTime() - start) / (double) operations;
+    }
+
+    /**
+     * Like {@link #nanosPerOp}, for operations that can't be repeated with the same arguments.
+     * The warm-up round receives the indexes {@code 0} to {@code operations - 1} and the timed
+     * round the indexes {@code operations} to {@code 2 * operations - 1}.
+     *
+     * @param operations The number of times the operation is invoked per round.
+     * @param operation  The operation, receiving the iteration index.
+     * @return The average time per operation in nanoseconds.
+     */
+
+    public static double nanosPerFreshOp(int operations, IntConsumer operation) {
+        for (int i = 0; i < operations; i++) {
+            operation.accept(i);
+        }
+
+        long start = System.nanoTime();
+        for (int i = operations; i < 2 * operations; i++) {
+            operation.accept(i);
+        }
+        return (System.nanoTime() - start) / (double) operations;
+    }
+
+    /**
+     * Times a single run of the operation.
+     *
+     * @param operation The operation to be timed.
+     * @return The elapsed time in milliseconds.
+     */
+
+    public static double millis(Runnable operation) {
+        long start = System.nanoTime();
+        operation.run();
+        return (System.nanoTime() - start) / 1_000_000.0;
+    }
+
+    /**
+     * Prints a result line in a fixed format.
+     *
+     * @param name  The name of the measurement.
+     * @param scale The size of the data set.
+     * @param value The measured value.
+     * @param unit  The unit of the value.
+     */
+
+    public static void report(String name, int scale, double value, String unit) {
+        System.out.printf("%-32s %10d %14.1f %s%n", name, scale, value, unit);
+    }
+}
@@ -0,0 +1,50 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.system.Database;
+
+/**
+ * Measures {@link Database#sendCommunityMessage} on communities of growing size, and
+ * {@link Database#readPosts} for a member of several communities. Posting should not
+ * depend on the number of members.
+ */
+
+public class CommunityPostBenchmark {
+
+    private static final int[] MEMBERS = {1_000, 100_000, 500_000};
+    private static final int POSTS = 10_000;
+    private static final int COMMUNITIES = 10;
+
+    public static void main(String[] args) {
+        for (int members : MEMBERS) {
+            Database database = Bench.newDatabase();
+            String owner = null;
+            String reader = null;
+            for (int i = 0; i < members; i++) {
+                database.newUser("user" + i, "password", "User " + i);
+                String session = database.startSession("user" + i, "password");
+                if (i == 0) {
+                    owner = session;
+                    for (int c = 0; c < COMMUNITIES; c++) {
+                        database.createCommunity(session, "community" + c, "Comunidade " + c);
+                    }
+                } else {
+                    database.addToCommunity(session, "community0");
+                }
+                if (i == 1) {
+                    reader = session;
+                    for (int c = 1; c < COMMUNITIES; c++) {
+                        database.addToCommunity(session, "community" + c);
+                    }
+                }
+            }
+
+            String sender = owner;
+            Bench.report("sendCommunityMessage", members, Bench.nanosPerOp(POSTS,
+                    i -> database.sendCommunityMessage(sender, "community" + (i % COMMUNITIES), "Post " + i)) / 1_000.0, "us/op");
+
+            String session = reader;
+            Bench.report("readPosts (" + COMMUNITIES + " communities)", members, Bench.nanosPerOp(POSTS,
+                    i -> database.readPosts(session)) / 1_000.0, "us/op");
+        }
+    }
+}
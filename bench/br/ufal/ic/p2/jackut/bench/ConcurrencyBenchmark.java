@@ -0,0 +1,104 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.system.Database;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a mix of reads and writes on one {@link Database} from a growing number of threads
+ * and reports the throughput. Afterwards it checks that no update was lost: every message
+ * that was sent is read back exactly once.
+ */
+
+public class ConcurrencyBenchmark {
+
+    private static final int USERS = 100_000;
+    private static final int OPERATIONS = 2_000_000;
+    private static final int[] THREADS = {1, 2, 4, 8, 16};
+    private static final int WRITE_PERCENT = 20;
+
+    public static void main(String[] args) throws InterruptedException {
+        for (int threads : THREADS) {
+            Database database = Bench.newDatabase();
+            String[] sessions = new String[USERS];
+            for (int i = 0; i < USERS; i++) {
+                database.newUser("user" + i, "password", "User " + i);
+                sessions[i] = database.startSession("user" + i, "password");
+                database.editProfile(sessions[i], "cidade", "Maceio");
+            }
+
+            AtomicLong sent = new AtomicLong();
+            double elapsed = run(threads, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int op = 0; op < OPERATIONS / threads; op++) {
+                    int user = random.nextInt(USERS);
+                    int other = random.nextInt(USERS);
+                    if (random.nextInt(100) >= WRITE_PERCENT) {
+                        switch (op % 3) {
+                            case 0 -> database.getFriends("user" + user);
+                            case 1 -> database.areFriends("user" + user, "user" + other);
+                            default -> database.getUserAttribute("user" + user, "cidade");
+                        }
+                    } else if (user != other) {
+                        if (op % 2 == 0) {
+                            database.sendMessage(sessions[user], "user" + other, "Oi!");
+                            sent.incrementAndGet();
+                        } else {
+                            try {
+                                database.addFriend(sessions[user], "user" + other);
+                            } catch (RuntimeException ignored) {
+                                // already added
+                            }
+                        }
+                    }
+                }
+            });
+            Bench.report("mixed ops/s (" + WRITE_PERCENT + "% writes)", threads, OPERATIONS / elapsed * 1_000.0, "ops/s");
+
+            long read = 0;
+            for (String session : sessions) {
+                try {
+                    while (true) {
+                        database.readMessage(session);
+                        read++;
+                    }
+                } catch (RuntimeException empty) {
+                    // inbox drained
+                }
+            }
+            if (read != sent.get()) {
+                throw new IllegalStateException(sent.get() + " messages sent but " + read + " read");
+            }
+        }
+    }
+
+    /**
+     * Starts the threads together and waits for all of them.
+     *
+     * @return The elapsed time in milliseconds.
+     */
+
+    private static double run(int threads, Runnable work) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    work.run();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return (System.nanoTime() - begin) / 1_000_000.0;
+    }
+}
@@ -0,0 +1,94 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.system.Database;
+
+/**
+ * Measures {@link Database#deleteAccount}.
+ * The first table keeps the degree of the removed users fixed while the system grows,
+ * the second keeps the system fixed while the degree grows. Removal cost should only
+ * follow the degree. The last table removes the fans of one popular user one by one, then the
+ * popular user, whose list of fans shrinks with every removal.
+ */
+
+public class DeleteAccountBenchmark {
+
+    private static final int[] SCALES = {10_000, 100_000, 1_000_000};
+    private static final int[] DEGREES = {10, 100, 1_000};
+    private static final int VICTIMS = 500;
+    private static final int[] FANS = {50_000, 200_000};
+
+    public static void main(String[] args) {
+        for (int scale : SCALES) {
+            Bench.report("deleteAccount (degree 10)", scale, run(scale, 10), "us/op");
+        }
+        for (int degree : DEGREES) {
+            Bench.report("deleteAccount (100k users)", degree, run(100_000, degree), "us/op");
+        }
+        for (int fans : FANS) {
+            popular(fans);
+        }
+    }
+
+    private static void popular(int fans) {
+        Database database = Bench.newDatabase();
+        database.newUser("idol", "password", "Idol");
+        String[] sessions = new String[fans];
+        for (int i = 0; i < fans; i++) {
+            database.newUser("fan" + i, "password", "Fan " + i);
+            sessions[i] = database.startSession("fan" + i, "password");
+            database.addIdol(sessions[i], "idol");
+        }
+
+        Bench.report("deleteAccount (every fan)", fans, Bench.millis(() -> {
+            for (String session : sessions) {
+                database.deleteAccount(session);
+            }
+        }), "ms");
+
+        for (int i = 0; i < fans; i++) {
+            database.newUser("again" + i, "password", "Fan " + i);
+            database.addIdol(database.startSession("again" + i, "password"), "idol");
+        }
+        String idol = database.startSession("idol", "password");
+        Bench.report("deleteAccount (popular idol)", fans, Bench.millis(() -> database.deleteAccount(idol)), "ms");
+    }
+
+    /**
+     * Creates the users, connects each victim to {@code degree} neighbours through every
+     * kind of relationship and a message, then times the removal of the victims.
+     *
+     * @return The average removal time in microseconds.
+     */
+
+    private static double run(int scale, int degree) {
+        Database database = Bench.newDatabase();
+        for (int i = 0; i < scale; i++) {
+            database.newUser("user" + i, "password", "User " + i);
+        }
+
+        String[] sessions = new String[VICTIMS];
+        for (int v = 0; v < VICTIMS; v++) {
+            sessions[v] = database.startSession("user" + v, "password");
+            for (int d = 1; d <= degree; d++) {
+                String neighbour = "user" + (VICTIMS + (v * 7919L + d) % (scale - VICTIMS));
+                String neighbourSession = database.startSession(neighbour, "password");
+                try {
+                    database.addFriend(sessions[v], neighbour);
+                    database.addFriend(neighbourSession, "user" + v);
+                    database.addIdol(neighbourSession, "user" + v);
+                    database.addFlirt(sessions[v], neighbour);
+                    database.sendMessage(sessions[v], neighbour, "Ola!");
+                } catch (RuntimeException ignored) {
+                    // the same neighbour was picked twice
+                }
+            }
+        }
+
+        double elapsed = Bench.millis(() -> {
+            for (String session : sessions) {
+                database.deleteAccount(session);
+            }
+        });
+        return elapsed * 1_000.0 / VICTIMS;
+    }
+}
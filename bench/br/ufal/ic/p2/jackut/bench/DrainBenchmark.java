@@ -0,0 +1,42 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.system.Database;
+
+/**
+ * Fills an inbox and a timeline with a backlog of messages and times draining them
+ * through {@link Database#readMessage} and {@link Database#readPosts}. The cost per
+ * message should not grow with the backlog.
+ */
+
+public class DrainBenchmark {
+
+    private static final int[] BACKLOGS = {10_000, 100_000, 1_000_000};
+
+    public static void main(String[] args) {
+        for (int backlog : BACKLOGS) {
+            Database database = Bench.newDatabase();
+            database.newUser("sender", "password", "Sender");
+            database.newUser("reader", "password", "Reader");
+            String sender = database.startSession("sender", "password");
+            String reader = database.startSession("reader", "password");
+            database.createCommunity(sender, "community", "Comunidade");
+            database.addToCommunity(reader, "community");
+
+            for (int i = 0; i < backlog; i++) {
+                database.sendMessage(sender, "reader", "Recado " + i);
+                database.sendCommunityMessage(sender, "community", "Post " + i);
+            }
+
+            Bench.report("drain inbox", backlog, Bench.millis(() -> {
+                for (int i = 0; i < backlog; i++) {
+                    database.readMessage(reader);
+                }
+            }) * 1_000_000.0 / backlog, "ns/msg");
+            Bench.report("drain timeline", backlog, Bench.millis(() -> {
+                for (int i = 0; i < backlog; i++) {
+                    database.readPosts(reader);
+                }
+            }) * 1_000_000.0 / backlog, "ns/msg");
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.facades.Facade;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times every {@link Facade} operation on a populated system, so a regression in any of them
+ * shows up as a change in its line. For each scale the system is filled with that many users,
+ * each with {@value #FRIENDS} friends, a profile attribute, {@value #BACKLOG} unread recados
+ * and membership in one of {@code users / }{@value #MEMBERS} communities, each with
+ * {@value #BACKLOG} posts waiting to be read.
+ * <p>
+ * Operations that change the system get fresh arguments on every call (new logins, pairs of
+ * users that aren't related yet, unread messages), so each call does the same work it would
+ * in a script. The scales can be given as arguments: {@code FacadeBenchmark 1000 50000}.
+ */
+
+public class FacadeBenchmark {
+
+    private static final int[] SCALES = {10_000, 100_000};
+    private static final int FRIENDS = 10;
+    private static final int BACKLOG = 2;
+    private static final int MEMBERS = 100;
+    private static final int BATCH = 10;
+    private static final int MAX_OPERATIONS = 10_000;
+
+    public static void main(String[] args) {
+        int[] scales = SCALES;
+        if (args.length > 0) {
+            scales = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                scales[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        for (int scale : scales) {
+            run(scale);
+        }
+    }
+
+    private static void run(int users) {
+        Facade facade = Bench.newFacade();
+        int communities = Math.max(1, users / MEMBERS);
+        int ops = Math.min(MAX_OPERATIONS, users / 4);
+
+        String[] sessions = new String[users];
+        for (int i = 0; i < users; i++) {
+            facade.criarUsuario(login(i), "senha", "Usuario " + i);
+            sessions[i] = facade.abrirSessao(login(i), "senha");
+            facade.editarPerfil(sessions[i], "cidade", "Maceio");
+        }
+        for (int i = 0; i < users; i++) {
+            for (int f = 1; f <= FRIENDS / 2; f++) {
+                facade.adicionarAmigo(sessions[i], login((i + f) % users));
+                facade.adicionarAmigo(sessions[(i + f) % users], login(i));
+            }
+        }
+        for (int c = 0; c < communities; c++) {
+            facade.criarComunidade(sessions[c], community(c), "Comunidade " + c);
+        }
+        for (int i = communities; i < users; i++) {
+            facade.adicionarComunidade(sessions[i], community(i % communities));
+        }
+        for (int b = 0; b < BACKLOG; b++) {
+            for (int i = 0; i < users; i++) {
+                facade.enviarRecado(sessions[(i + 1) % users], login(i), "Recado " + b);
+            }
+            for (int c = 0; c < communities; c++) {
+                facade.enviarMensagem(sessions[c], community(c), "Mensagem " + b);
+            }
+        }
+
+        List<String> recipientList = new ArrayList<>();
+        List<String> targetList = new ArrayList<>();
+        for (int b = 0; b < BATCH; b++) {
+            recipientList.add(login(b + 1));
+            targetList.add(community(b % communities));
+        }
+        String recipients = String.join(",", recipientList);
+        String targets = String.join(",", targetList);
+
+        // Users
+
+        report("criarUsuario", users, Bench.nanosPerFreshOp(ops, i ->
+                facade.criarUsuario("novo" + i, "senha", "Novo " + i)));
+        report("abrirSessao", users, Bench.nanosPerOp(ops, i ->
+                facade.abrirSessao(login(i % users), "senha")));
+        report("getAtributoUsuario", users, Bench.nanosPerOp(ops, i ->
+                facade.getAtributoUsuario(login(i % users), "cidade")));
+        report("editarPerfil", users, Bench.nanosPerOp(ops, i ->
+                facade.editarPerfil(sessions[i % users], "cidade", "Arapiraca")));
+
+        // Friends
+
+        report("adicionarAmigo", users, Bench.nanosPerFreshOp(ops, i ->
+                facade.adicionarAmigo(sessions[i], login((i + FRIENDS + 1) % users))));
+        report("ehAmigo", users, Bench.nanosPerOp(ops, i ->
+                facade.ehAmigo(login(i % users), login((i + 1) % users))));
+        report("getAmigos", users, Bench.nanosPerOp(ops, i ->
+                facade.getAmigos(login(i % users))));
+        report("getAmigosEmComum", users, Bench.nanosPerOp(ops, i ->
+                facade.getAmigosEmComum(login(i % users), login((i + 2) % users))));
+        report("getSugestoesDeAmigos", users, Bench.nanosPerOp(ops, i ->
+                facade.getSugestoesDeAmigos(login(i % users))));
+        report("getNumeroDeAmigos", users, Bench.nanosPerOp(ops, i ->
+                facade.getNumeroDeAmigos(login(i % users))));
+
+        // Recados
+
+        report("lerRecado", users, Bench.nanosPerFreshOp(ops, i ->
+                facade.lerRecado(sessions[i])));
+        report("enviarRecado", users, Bench.nanosPerOp(ops, i ->
+                facade.enviarRecado(sessions[i % users], login((i + 1) % users), "Oi!")));
+        report("enviarRecados (" + BATCH + ")", users, Bench.nanosPerOp(ops, i ->
+                facade.enviarRecados(sessions[0], recipients, "Oi a todos!")));
+
+        // Communities
+
+        report("criarComunidade", users, Bench.nanosPerFreshOp(ops, i ->
+                facade.criarComunidade(sessions[i], "nova" + i, "Nova " + i)));
+        report("adicionarComunidade", users, Bench.nanosPerFreshOp(ops, i ->
+                facade.adicionarComunidade(sessions[i + 1], "nova" + i)));
+        report("getDescricaoComunidade", users, Bench.nanosPerOp(ops, i ->
+                facade.getDescricaoComunidade(community(i % communities))));
+        report("getDonoComunidade", users, Bench.nanosPerOp(ops, i ->
+                facade.getDonoComunidade(community(i % communities))));
+        report("getMembrosComunidade", users, Bench.nanosPerOp(ops, i ->
+                facade.getMembrosComunidade(community(i % communities))));
+        report("getComunidades", users, Bench.nanosPerOp(ops, i ->
+                facade.getComunidades(login(i % users))));
+        report("lerMensagem", users, Bench.nanosPerFreshOp(ops, i ->
+                facade.lerMensagem(sessions[communities + i])));
+        report("enviarMensagem", users, Bench.nanosPerOp(ops, i ->
+                facade.enviarMensagem(sessions[i % users], community(i % communities), "Oi!")));
+        report("enviarMensagens (" + BATCH + ")", users, Bench.nanosPerOp(ops, i ->
+                facade.enviarMensagens(sessions[0], targets, "Oi a todos!")));
+
+        // Fans, flirts and enemies
+
+        report("adicionarIdolo", users, Bench.nanosPerFreshOp(ops, i ->
+                facade.adicionarIdolo(sessions[i], login((i + FRIENDS + 2) % users))));
+        report("ehFa", users, Bench.nanosPerOp(ops, i ->
+                facade.ehFa(login(i % users), login((i + FRIENDS + 2) % users))));
+        report("getFas", users, Bench.nanosPerOp(ops, i ->
+                facade.getFas(login(i % users))));
+        report("adicionarPaquera", users, Bench.nanosPerFreshOp(ops, i ->
+                facade.adicionarPaquera(sessions[i], login((i + FRIENDS + 3) % users))));
+        report("ehPaquera", users, Bench.nanosPerOp(ops, i ->
+                facade.ehPaquera(sessions[i % users], login((i + FRIENDS + 3) % users))));
+        report("getPaqueras", users, Bench.nanosPerOp(ops, i ->
+                facade.getPaqueras(sessions[i % users])));
+        report("adicionarInimigo", users, Bench.nanosPerFreshOp(ops, i ->
+                facade.adicionarInimigo(sessions[i], login((i + FRIENDS + 4) % users))));
+
+        // Removal and the whole system
+
+        String[] removed = new String[2 * ops];
+        for (int i = 0; i < removed.length; i++) {
+            removed[i] = facade.abrirSessao("novo" + i, "senha");
+        }
+        report("removerUsuario", users, Bench.nanosPerFreshOp(ops, i ->
+                facade.removerUsuario(removed[i])));
+
+        Bench.report("encerrarSistema", users, Bench.millis(facade::encerrarSistema), "ms");
+        Bench.report("zerarSistema", users, Bench.millis(facade::zerarSistema), "ms");
+        facade.encerrarSistema();
+    }
+
+    private static void report(String operation, int users, double nanos) {
+        Bench.report(operation, users, nanos / 1_000.0, "us/op");
+    }
+
+    private static String login(int user) {
+        return "user" + user;
+    }
+
+    private static String community(int community) {
+        return "community" + community;
+    }
+}
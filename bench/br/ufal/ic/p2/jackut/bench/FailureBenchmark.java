@@ -0,0 +1,52 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.facades.Facade;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Times calls that fail in the ordinary course of use, as abusive traffic makes them: logins
+ * with a wrong password or an unknown login, polling an empty inbox and an empty post log,
+ * reading an attribute that isn't filled in, a friend request sent again and an expired
+ * session. Every call goes through the {@link Facade} and its exception is caught, as a
+ * client would.
+ */
+
+public class FailureBenchmark {
+
+    private static final int USERS = 10_000;
+    private static final int CALLS = 1_000_000;
+
+    public static void main(String[] args) {
+        Facade facade = Bench.newFacade();
+        String[] sessions = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            facade.criarUsuario("user" + i, "senha", "Usuario " + i);
+            sessions[i] = facade.abrirSessao("user" + i, "senha");
+        }
+        for (int i = 0; i < USERS; i++) {
+            facade.adicionarAmigo(sessions[i], "user" + ((i + 1) % USERS));
+        }
+
+        report("abrirSessao (wrong password)", i -> facade.abrirSessao("user" + (i % USERS), "errada"));
+        report("abrirSessao (unknown login)", i -> facade.abrirSessao("intruso" + (i % USERS), "senha"));
+        report("lerRecado (empty inbox)", i -> facade.lerRecado(sessions[i % USERS]));
+        report("lerMensagem (no posts)", i -> facade.lerMensagem(sessions[i % USERS]));
+        report("getAtributoUsuario (unset)", i -> facade.getAtributoUsuario("user" + (i % USERS), "cidade"));
+        report("adicionarAmigo (again)", i -> facade.adicionarAmigo(sessions[i % USERS], "user" + ((i + 1) % USERS)));
+        report("lerRecado (unknown session)", i -> facade.lerRecado("sessao" + (i % USERS)));
+
+        facade.zerarSistema();
+    }
+
+    private static void report(String name, IntConsumer call) {
+        Bench.report(name, CALLS, Bench.nanosPerOp(CALLS, i -> {
+            try {
+                call.accept(i);
+            } catch (RuntimeException expected) {
+                return;
+            }
+            throw new IllegalStateException(name + ": the call succeeded.");
+        }), "ns/op");
+    }
+}
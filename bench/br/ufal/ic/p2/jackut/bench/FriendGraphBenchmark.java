@@ -0,0 +1,67 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.system.Database;
+
+import java.util.Random;
+
+/**
+ * Builds a power-law friendship graph by preferential attachment and times the graph queries
+ * on it: mutual friends, friend suggestions for typical users and for the best connected
+ * user, and friend counts. Each new user befriends {@value #LINKS} existing users chosen
+ * with probability proportional to their number of friends.
+ */
+
+public class FriendGraphBenchmark {
+
+    private static final int[] SCALES = {10_000, 100_000, 300_000};
+    private static final int LINKS = 5;
+    private static final int QUERIES = 10_000;
+
+    public static void main(String[] args) {
+        for (int scale : SCALES) {
+            Database database = Bench.newDatabase();
+            String[] sessions = new String[scale];
+            for (int i = 0; i < scale; i++) {
+                database.newUser("user" + i, "password", "User " + i);
+                sessions[i] = database.startSession("user" + i, "password");
+            }
+
+            Random random = new Random(42);
+            int[] endpoints = new int[2 * LINKS * scale];
+            int edges = 0;
+            for (int i = 1; i < scale; i++) {
+                for (int l = 0; l < Math.min(LINKS, i); l++) {
+                    int friend = edges == 0 ? 0 : endpoints[random.nextInt(edges)];
+                    if (friend == i || database.areFriends("user" + i, "user" + friend)) {
+                        continue;
+                    }
+                    database.addFriend(sessions[i], "user" + friend);
+                    database.addFriend(sessions[friend], "user" + i);
+                    endpoints[edges++] = i;
+                    endpoints[edges++] = friend;
+                }
+            }
+
+            int hub = 0;
+            for (int i = 0; i < Math.min(scale, 100); i++) {
+                if (database.countFriends("user" + i) > database.countFriends("user" + hub)) {
+                    hub = i;
+                }
+            }
+            Bench.report("hub friends", scale, database.countFriends("user" + hub), "friends");
+
+            int pairs = edges;
+            Bench.report("getMutualFriends", scale, Bench.nanosPerOp(QUERIES, i ->
+                    database.getMutualFriends("user" + endpoints[i % pairs], "user" + endpoints[(i * 7 + 1) % pairs])) / 1_000.0, "us/op");
+            Bench.report("getFriendSuggestions", scale, Bench.nanosPerOp(QUERIES, i ->
+                    database.getFriendSuggestions("user" + (i * 31 % scale))) / 1_000.0, "us/op");
+            String hubLogin = "user" + hub;
+            Bench.report("getFriendSuggestions (hub)", scale, Bench.nanosPerOp(10, i ->
+                    database.getFriendSuggestions(hubLogin)) / 1_000_000.0, "ms/op");
+            Bench.report("countFriends", scale, Bench.nanosPerOp(QUERIES, i ->
+                    database.countFriends("user" + (i % scale))), "ns/op");
+
+            database.flush();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.system.Database;
+
+/**
+ * Leaves a backlog of unread messages in a few inboxes and reports the heap they take,
+ * then times draining one of them through {@link Database#readMessage}. Run it with and
+ * without a small {@code jackut.inbox.capacity} to compare: with a cap, the heap should
+ * stay flat as the backlog grows.
+ */
+
+public class InboxSpillBenchmark {
+
+    private static final int[] BACKLOGS = {10_000, 100_000, 1_000_000};
+    private static final int READERS = 10;
+
+    public static void main(String[] args) {
+        for (int backlog : BACKLOGS) {
+            Database database = Bench.newDatabase();
+            database.newUser("sender", "password", "Sender");
+            String sender = database.startSession("sender", "password");
+            String[] readers = new String[READERS];
+            for (int r = 0; r < READERS; r++) {
+                database.newUser("reader" + r, "password", "Reader " + r);
+                readers[r] = database.startSession("reader" + r, "password");
+            }
+
+            long before = usedHeap();
+            for (int i = 0; i < backlog; i++) {
+                database.sendMessage(sender, "reader" + (i % READERS), "Recado n\u00famero " + i + " da caixa de entrada");
+            }
+            Bench.report("heap for unread messages", backlog, (usedHeap() - before) / (1024.0 * 1024.0), "MiB");
+
+            String reader = readers[0];
+            Bench.report("drain inbox", backlog, Bench.millis(() -> {
+                for (int i = 0; i < backlog / READERS; i++) {
+                    database.readMessage(reader);
+                }
+            }) * 1_000_000.0 / (backlog / READERS), "ns/msg");
+
+            database.flush();
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
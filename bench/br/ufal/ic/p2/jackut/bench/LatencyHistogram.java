@@ -0,0 +1,108 @@
+package br.ufal.ic.p2.jackut.bench;
+
+/**
+ * Counts latencies in buckets whose width grows with the value, so every recorded value is
+ * kept within 1/64 of its magnitude whatever its range, in the manner of HdrHistogram.
+ * Values below 128 ns have a bucket each; above that, every power of two is split into
+ * 64 buckets. Recording is a shift and an increment, and the histogram is not thread-safe:
+ * each thread records into its own and they are {@link #add added} up afterwards.
+ */
+
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 64;
+    private static final int DIRECT = 2 * SUB_BUCKETS;
+
+    private final long[] counts = new long[SUB_BUCKETS * (64 - 6) + SUB_BUCKETS];
+    private long total;
+    private long max;
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos The latency in nanoseconds.
+     */
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts[index(nanos)]++;
+        total++;
+        max = Math.max(max, nanos);
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     *
+     * @param other The histogram to be added.
+     */
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     *
+     * @return The number of recorded latencies.
+     */
+
+    public long count() {
+        return total;
+    }
+
+    /**
+     * Returns the highest recorded latency.
+     *
+     * @return The highest latency in nanoseconds.
+     */
+
+    public long max() {
+        return max;
+    }
+
+    /**
+     * Returns the latency below which the given fraction of the recorded latencies fall.
+     *
+     * @param quantile The fraction, between 0 and 1.
+     * @return The highest latency of the bucket the quantile falls in, in nanoseconds.
+     */
+
+    public long percentile(double quantile) {
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highest(i));
+            }
+        }
+        return max;
+    }
+
+    private static int index(long value) {
+        if (value < DIRECT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+        return SUB_BUCKETS * shift + (int) (value >>> shift);
+    }
+
+    private static long highest(int index) {
+        if (index < DIRECT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index - (long) SUB_BUCKETS * shift;
+        return ((sub + 1) << shift) - 1;
+    }
+}
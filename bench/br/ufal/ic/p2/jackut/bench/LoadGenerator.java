@@ -0,0 +1,347 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.facades.Facade;
+import br.ufal.ic.p2.jackut.server.CommandLine;
+import br.ufal.ic.p2.jackut.server.Commands;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Replays a script in the EasyAccept format of {@code tests/} on behalf of many simulated
+ * sessions at once, from a pool of threads sharing one {@link Facade}, and reports the
+ * throughput and latency percentiles of each command.
+ * <p>
+ * Scripts hold the same lines as the acceptance tests ({@code s=abrirSessao login=... senha=...},
+ * {@code expect "..." ...}, {@code expectError "..." ...}), split in sections:
+ * <ul>
+ *     <li>{@code setup} or {@code setup <n>} starts a section every session runs once, or
+ *     {@code n} times, before the next section starts. Lines before any section are setup.</li>
+ *     <li>{@code load} starts the section every session runs once per round. Only this section
+ *     is measured.</li>
+ * </ul>
+ * Besides the variables a session assigns, values may refer to {@code ${user}}, the number of
+ * the simulated session, {@code ${next}} and {@code ${previous}}, its neighbours,
+ * {@code ${other}}, a random session, and {@code ${round}}. A command that fails outside of
+ * {@code expectError}, or an expectation that isn't met, counts as an error of that command.
+ * <p>
+ * Usage: {@code LoadGenerator <script> [sessions] [threads] [rounds]}. Scripts are read as
+ * ISO-8859-1, like the acceptance tests; {@code bench/scripts/mix.txt} is an example.
+ */
+
+public class LoadGenerator {
+
+    private static final int SESSIONS = 1_000;
+    private static final int ROUNDS = 100;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: LoadGenerator <script> [sessions] [threads] [rounds]");
+            System.exit(2);
+        }
+
+        Script script = Script.parse(Files.readAllLines(Path.of(args[0]), StandardCharsets.ISO_8859_1));
+        int sessions = args.length > 1 ? Integer.parseInt(args[1]) : SESSIONS;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : ROUNDS;
+
+        Facade facade = Bench.newFacade();
+        List<Map<String, String>> variables = new ArrayList<>(sessions);
+        for (int user = 0; user < sessions; user++) {
+            variables.add(new HashMap<>());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (Section section : script.setup()) {
+                Worker[] workers = workers(threads, sessions, facade, variables, script);
+                double millis = Bench.millis(() -> runAll(pool, workers, worker -> worker.run(section.steps(), section.repeat())));
+                Worker total = sum(workers);
+                System.out.printf("setup (line %d): %d ops in %.1f ms, %d errors%n",
+                        section.line(), total.operations(), millis, total.errors());
+                total.printFirstErrors(script);
+            }
+
+            Worker[] workers = workers(threads, sessions, facade, variables, script);
+            double millis = Bench.millis(() -> runAll(pool, workers, worker -> worker.run(script.load(), rounds)));
+            report(script, sum(workers), millis, sessions, threads, rounds);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Worker[] workers(int threads, int sessions, Facade facade, List<Map<String, String>> variables, Script script) {
+        Worker[] workers = new Worker[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Worker(t, threads, sessions, facade, variables, script);
+        }
+        return workers;
+    }
+
+    private static void runAll(ExecutorService pool, Worker[] workers, Consumer<Worker> task) {
+        List<Future<?>> futures = new ArrayList<>();
+        for (Worker worker : workers) {
+            futures.add(pool.submit(() -> task.accept(worker)));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Worker sum(Worker[] workers) {
+        Worker total = workers[0];
+        for (int t = 1; t < workers.length; t++) {
+            total.add(workers[t]);
+        }
+        return total;
+    }
+
+    private static void report(Script script, Worker total, double millis, int sessions, int threads, int rounds) {
+        System.out.printf("load: %d sessions, %d threads, %d rounds, %.1f s%n",
+                sessions, threads, rounds, millis / 1_000.0);
+        System.out.printf("%-24s %10s %12s %10s %10s %10s %10s %8s%n",
+                "command", "ops", "ops/s", "p50 us", "p99 us", "p999 us", "max us", "errors");
+
+        LatencyHistogram all = new LatencyHistogram();
+        for (int c = 0; c < script.commands().size(); c++) {
+            LatencyHistogram histogram = total.histograms[c];
+            if (histogram.count() == 0) {
+                continue;
+            }
+            all.add(histogram);
+            print(script.commands().get(c), histogram, total.errors[c], millis);
+        }
+        print("total", all, total.errors(), millis);
+        total.printFirstErrors(script);
+    }
+
+    private static void print(String command, LatencyHistogram histogram, long errors, double millis) {
+        System.out.printf("%-24s %10d %12.0f %10.1f %10.1f %10.1f %10.1f %8d%n", command, histogram.count(),
+                histogram.count() / millis * 1_000.0,
+                histogram.percentile(0.50) / 1_000.0, histogram.percentile(0.99) / 1_000.0,
+                histogram.percentile(0.999) / 1_000.0, histogram.max() / 1_000.0, errors);
+    }
+
+    /**
+     * A parsed script: the setup sections in order, the load section and the names of the
+     * commands it uses, indexed by {@link Step#command()}.
+     */
+
+    private record Script(List<Section> setup, List<Step> load, List<String> commands) {
+
+        static Script parse(List<String> lines) {
+            List<Section> setup = new ArrayList<>();
+            List<Step> load = null;
+            List<String> commands = new ArrayList<>();
+            List<Step> current = new ArrayList<>();
+            setup.add(new Section(1, 1, current));
+
+            for (int number = 1; number <= lines.size(); number++) {
+                String line = lines.get(number - 1).strip();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] words = line.split("\\s+");
+                if (words[0].equals("setup") && words.length <= 2) {
+                    if (load != null) {
+                        throw new IllegalArgumentException("Line " + number + ": setup after load.");
+                    }
+                    current = new ArrayList<>();
+                    setup.add(new Section(number, words.length == 2 ? Integer.parseInt(words[1]) : 1, current));
+                } else if (line.equals("load")) {
+                    current = load = new ArrayList<>();
+                } else {
+                    current.add(Step.parse(number, line, commands));
+                }
+            }
+
+            if (load == null) {
+                throw new IllegalArgumentException("The script has no load section.");
+            }
+            setup.removeIf(section -> section.steps().isEmpty());
+            return new Script(setup, load, commands);
+        }
+    }
+
+    private record Section(int line, int repeat, List<Step> steps) {
+    }
+
+    /**
+     * A script line: the facade method it calls with its argument templates, the variable the
+     * result is assigned to, and the result or error message it expects, if any.
+     */
+
+    private record Step(int line, int command, Method method, String[] arguments,
+                        String variable, String expected, boolean expectError) {
+
+        static Step parse(int line, String text, List<String> commands) {
+            CommandLine parsed;
+            Method method;
+            try {
+                parsed = CommandLine.parse(text);
+                method = Commands.find(parsed.command(), parsed.arguments().size());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + line + ": " + e.getMessage(), e);
+            }
+
+            String name = parsed.command();
+            if (!commands.contains(name)) {
+                commands.add(name);
+            }
+            return new Step(line, commands.indexOf(name), method, parsed.arguments().toArray(new String[0]),
+                    parsed.variable(), parsed.expected(), parsed.expectError());
+        }
+    }
+
+    /**
+     * Runs sections on behalf of every {@code threads}-th session, starting at its own number,
+     * and keeps the latencies and errors of each command. Workers are only read once their
+     * threads have finished.
+     */
+
+    private static final class Worker {
+        private final int first;
+        private final int stride;
+        private final int sessions;
+        private final Facade facade;
+        private final List<Map<String, String>> variables;
+        private final Random random;
+        private final LatencyHistogram[] histograms;
+        private final long[] errors;
+        private final String[] firstErrors;
+
+        Worker(int first, int stride, int sessions, Facade facade, List<Map<String, String>> variables, Script script) {
+            this.first = first;
+            this.stride = stride;
+            this.sessions = sessions;
+            this.facade = facade;
+            this.variables = variables;
+            this.random = new Random(first);
+            int commands = script.commands().size();
+            this.histograms = new LatencyHistogram[commands];
+            for (int c = 0; c < commands; c++) {
+                histograms[c] = new LatencyHistogram();
+            }
+            this.errors = new long[commands];
+            this.firstErrors = new String[commands];
+        }
+
+        void run(List<Step> steps, int rounds) {
+            for (int round = 0; round < rounds; round++) {
+                for (int user = first; user < sessions; user += stride) {
+                    for (Step step : steps) {
+                        execute(step, user, round);
+                    }
+                }
+            }
+        }
+
+        private void execute(Step step, int user, int round) {
+            Map<String, String> scope = variables.get(user);
+            String error = null;
+            long start = System.nanoTime();
+            long elapsed;
+
+            try {
+                Object[] arguments = arguments(step, scope, user, round);
+                start = System.nanoTime();
+                Object result;
+                try {
+                    result = step.method().invoke(facade, arguments);
+                } finally {
+                    elapsed = System.nanoTime() - start;
+                }
+
+                if (step.variable() != null) {
+                    scope.put(step.variable(), String.valueOf(result));
+                }
+                if (step.expectError()) {
+                    error = "expected error <" + step.expected() + ">, but no error occurred.";
+                } else if (step.expected() != null && !step.expected().equals(String.valueOf(result))) {
+                    error = "expected <" + step.expected() + ">, but was <" + result + ">.";
+                }
+            } catch (InvocationTargetException e) {
+                elapsed = System.nanoTime() - start;
+                String message = e.getCause().getMessage();
+                if (!step.expectError() || !step.expected().equals(message)) {
+                    error = message;
+                }
+            } catch (IllegalAccessException | IllegalArgumentException e) {
+                elapsed = 0;
+                error = e.getMessage();
+            }
+
+            histograms[step.command()].record(elapsed);
+            if (error != null) {
+                if (errors[step.command()]++ == 0) {
+                    firstErrors[step.command()] = "line " + step.line() + ", session " + user + ": " + error;
+                }
+            }
+        }
+
+        private Object[] arguments(Step step, Map<String, String> scope, int user, int round) {
+            String[] values = new String[step.arguments().length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = CommandLine.expand(step.arguments()[i], name -> switch (name) {
+                    case "user" -> String.valueOf(user);
+                    case "next" -> String.valueOf((user + 1) % sessions);
+                    case "previous" -> String.valueOf((user + sessions - 1) % sessions);
+                    case "other" -> String.valueOf(random.nextInt(sessions));
+                    case "round" -> String.valueOf(round);
+                    default -> scope.get(name);
+                });
+            }
+            return Commands.convert(step.method(), values);
+        }
+
+        void add(Worker other) {
+            for (int c = 0; c < histograms.length; c++) {
+                histograms[c].add(other.histograms[c]);
+                if (errors[c] == 0) {
+                    firstErrors[c] = other.firstErrors[c];
+                }
+                errors[c] += other.errors[c];
+            }
+        }
+
+        long operations() {
+            long operations = 0;
+            for (LatencyHistogram histogram : histograms) {
+                operations += histogram.count();
+            }
+            return operations;
+        }
+
+        long errors() {
+            return Arrays.stream(errors).sum();
+        }
+
+        void printFirstErrors(Script script) {
+            for (int c = 0; c < firstErrors.length; c++) {
+                if (firstErrors[c] != null) {
+                    System.out.println("  first error in " + script.commands().get(c) + " (" + firstErrors[c] + ")");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.system.Database;
+
+import java.io.File;
+
+/**
+ * Fills inboxes with messages drawn from a few distinct texts, each sent as its own string,
+ * and reports the heap they take before and after a JSON save and load. Messages with the
+ * same text should share one copy of it.
+ */
+
+public class MessagePayloadBenchmark {
+
+    private static final int[] SCALES = {10_000, 100_000, 500_000};
+    private static final int MESSAGES = 10;
+    private static final int TEXTS = 16;
+
+    public static void main(String[] args) {
+        for (int scale : SCALES) {
+            populateAndSave(scale);
+
+            long before = usedHeap();
+            Database loaded = Bench.newDatabase();
+            Bench.report("heap after json load", scale, (usedHeap() - before) / (1024.0 * 1024.0), "MiB");
+
+            loaded.flush();
+            new File("communities.json").delete();
+        }
+    }
+
+    /**
+     * Sends the messages, reports the heap they take and saves them. The database is
+     * dropped on return, without deleting the files.
+     */
+
+    private static void populateAndSave(int scale) {
+        long before = usedHeap();
+        Database database = Bench.newDatabase();
+        for (int i = 0; i < scale; i++) {
+            database.newUser("user" + i, "password", "User " + i);
+        }
+        for (int i = 0; i < scale; i++) {
+            String session = database.startSession("user" + i, "password");
+            for (int m = 1; m <= MESSAGES; m++) {
+                database.sendMessage(session, "user" + ((i + m) % scale),
+                        "Oi, tudo bem? Mensagem padr\u00e3o n\u00famero " + ((i + m) % TEXTS));
+            }
+        }
+        Bench.report("heap after sending", scale, (usedHeap() - before) / (1024.0 * 1024.0), "MiB");
+
+        database.usersToJSON();
+        database.communitiesToJSON();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,51 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.system.Database;
+
+/**
+ * Builds a graph of idols and fans and reports the heap taken per edge, then times
+ * {@link Database#isFan} on it. Each {@link Database#addIdol} stores two edges, one on
+ * the fan's idol list and one on the idol's fan list.
+ */
+
+public class RelationshipGraphBenchmark {
+
+    private static final int[] SCALES = {10_000, 100_000, 1_000_000};
+    private static final int IDOLS = 10;
+    private static final int LOOKUPS = 1_000_000;
+
+    public static void main(String[] args) {
+        for (int scale : SCALES) {
+            Database database = Bench.newDatabase();
+            String[] sessions = new String[scale];
+            for (int i = 0; i < scale; i++) {
+                database.newUser("user" + i, "password", "User " + i);
+                sessions[i] = database.startSession("user" + i, "password");
+            }
+
+            long before = usedHeap();
+            for (int i = 0; i < scale; i++) {
+                for (int f = 1; f <= IDOLS; f++) {
+                    database.addIdol(sessions[i], "user" + ((i + f * 7919L) % scale));
+                }
+            }
+            long edges = 2L * scale * IDOLS;
+            Bench.report("heap per edge", scale, (usedHeap() - before) / (double) edges, "bytes");
+
+            Bench.report("isFan", scale, Bench.nanosPerOp(LOOKUPS, i -> {
+                int fan = i % scale;
+                database.isFan("user" + fan, "user" + ((fan + (i % IDOLS + 1) * 7919L) % scale));
+            }), "ns/op");
+
+            database.flush();
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
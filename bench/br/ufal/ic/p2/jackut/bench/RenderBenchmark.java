@@ -0,0 +1,41 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.system.Database;
+
+/**
+ * Times the queries that return a list as a string, on a community with many members and
+ * a user in many communities: {@link Database#getCommunityMembers},
+ * {@link Database#getUserCommunities} and {@link Database#getFans}. Repeated reads of a list
+ * that didn't change should not depend on its size.
+ */
+
+public class RenderBenchmark {
+
+    private static final int[] MEMBERS = {1_000, 10_000, 100_000};
+    private static final int COMMUNITIES = 1_000;
+    private static final int READS = 1_000;
+
+    public static void main(String[] args) {
+        for (int members : MEMBERS) {
+            Database database = Bench.newDatabase();
+            database.newUser("owner", "password", "Owner");
+            String owner = database.startSession("owner", "password");
+            for (int c = 0; c < COMMUNITIES; c++) {
+                database.createCommunity(owner, "community" + c, "Comunidade " + c);
+            }
+            for (int i = 0; i < members; i++) {
+                database.newUser("user" + i, "password", "User " + i);
+                String session = database.startSession("user" + i, "password");
+                database.addToCommunity(session, "community0");
+                database.addIdol(session, "owner");
+            }
+
+            Bench.report("getCommunityMembers", members, Bench.nanosPerOp(READS, i ->
+                    database.getCommunityMembers("community0")) / 1_000.0, "us/op");
+            Bench.report("getFans", members, Bench.nanosPerOp(READS, i ->
+                    database.getFans("owner")) / 1_000.0, "us/op");
+            Bench.report("getUserCommunities (" + COMMUNITIES + ")", members, Bench.nanosPerOp(READS, i ->
+                    database.getUserCommunities("owner")) / 1_000.0, "us/op");
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.facades.Facade;
+import br.ufal.ic.p2.jackut.server.Server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a {@link Server} in process and reads profile attributes through it from a growing
+ * number of clients, over loopback TCP and a Unix domain socket, each client sending one line
+ * at a time or many before reading their replies. Every reply is checked.
+ */
+
+public class ServerBenchmark {
+
+    private static final int USERS = 1_000;
+    private static final int COMMANDS = 200_000;
+    private static final int[] CLIENTS = {1, 8, 64};
+    private static final int[] PIPELINE = {1, 32};
+
+    public static void main(String[] args) throws Exception {
+        Facade facade = Bench.newFacade();
+        for (int i = 0; i < USERS; i++) {
+            facade.criarUsuario("user" + i, "senha", "Usuario " + i);
+        }
+
+        Path socket = Files.createTempDirectory("jackut").resolve("jackut.sock");
+        run("tcp", facade, Server.address("0"));
+        run("unix", facade, UnixDomainSocketAddress.of(socket));
+        Files.deleteIfExists(socket.getParent());
+
+        facade.zerarSistema();
+    }
+
+    private static void run(String transport, Facade facade, SocketAddress bind) throws Exception {
+        try (Server server = new Server(facade, bind)) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            acceptor.start();
+
+            SocketAddress address = server.address();
+            for (int clients : CLIENTS) {
+                for (int pipeline : PIPELINE) {
+                    clients(address, clients, pipeline, COMMANDS / 10);
+                    double millis = clients(address, clients, pipeline, COMMANDS);
+                    Bench.report(transport + " " + clients + " clients, pipeline " + pipeline,
+                            COMMANDS, COMMANDS / millis * 1_000.0, "commands/s");
+                }
+            }
+        }
+    }
+
+    private static double clients(SocketAddress address, int clients, int pipeline, int commands) throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int first = c;
+            Thread thread = new Thread(() -> client(address, first, clients, pipeline, commands / clients));
+            thread.setUncaughtExceptionHandler((t, e) -> {
+                synchronized (failures) {
+                    failures.add(e);
+                }
+            });
+            threads.add(thread);
+        }
+
+        double millis = Bench.millis(() -> {
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException(failures.get(0));
+        }
+        return millis;
+    }
+
+    private static void client(SocketAddress address, int first, int stride, int pipeline, int commands) {
+        StandardProtocolFamily family = address instanceof UnixDomainSocketAddress
+                ? StandardProtocolFamily.UNIX : StandardProtocolFamily.INET;
+        try (SocketChannel channel = SocketChannel.open(family)) {
+            channel.connect(address);
+            OutputStream out = Channels.newOutputStream(channel);
+            BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+
+            StringBuilder batch = new StringBuilder();
+            for (int sent = 0; sent < commands; sent += pipeline) {
+                int size = Math.min(pipeline, commands - sent);
+                batch.setLength(0);
+                for (int i = 0; i < size; i++) {
+                    int user = (first + (sent + i) * stride) % USERS;
+                    batch.append("getAtributoUsuario login=user").append(user).append(" atributo=nome\n");
+                }
+                out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+
+                for (int i = 0; i < size; i++) {
+                    int user = (first + (sent + i) * stride) % USERS;
+                    String reply = in.readLine();
+                    if (!("OK Usuario " + user).equals(reply)) {
+                        throw new IllegalStateException("Expected <OK Usuario " + user + ">, but was <" + reply + ">.");
+                    }
+                }
+            }
+            out.write("quit\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.system.Database;
+
+import java.io.File;
+
+/**
+ * Compares the JSON files with the binary and mapped snapshots: size on disk, save time and load time.
+ * For the mapped snapshot, which reads users on demand, it also times the first lookups after
+ * opening and reading every remaining record to save it again.
+ */
+
+public class SnapshotBenchmark {
+
+    private static final int[] SCALES = {10_000, 100_000, 500_000};
+    private static final int FRIENDS = 10;
+    private static final int COMMUNITY_SIZE = 1_000;
+
+    public static void main(String[] args) {
+        for (int scale : SCALES) {
+            Database database = Bench.newDatabase();
+            populate(database, scale);
+
+            Bench.report("json save", scale, Bench.millis(() -> {
+                database.usersToJSON();
+                database.communitiesToJSON();
+            }), "ms");
+            Bench.report("json size", scale, (new File("users.json").length() + new File("communities.json").length()) / 1024.0, "KiB");
+
+            Bench.report("binary save", scale, Bench.millis(database::snapshotToBinary), "ms");
+            Bench.report("binary size", scale, new File("jackut.snapshot").length() / 1024.0, "KiB");
+
+            Bench.report("mapped save", scale, Bench.millis(database::snapshotToMapped), "ms");
+            Bench.report("mapped size", scale, new File("jackut.mapped").length() / 1024.0, "KiB");
+
+            System.setProperty("jackut.snapshot", "json");
+            Bench.report("json load", scale, Bench.millis(Bench::newDatabase), "ms");
+            System.setProperty("jackut.snapshot", "binary");
+            Bench.report("binary load", scale, Bench.millis(Bench::newDatabase), "ms");
+            System.setProperty("jackut.snapshot", "mapped");
+            Bench.report("mapped open", scale, Bench.millis(Bench::newDatabase), "ms");
+            Database mapped = Bench.newDatabase();
+            Bench.report("mapped first getAmigos", scale, Bench.millis(() -> mapped.getFriends("user" + (scale / 2))) * 1_000.0, "us");
+            Bench.report("mapped load all and save", scale, Bench.millis(mapped::snapshotToMapped), "ms");
+            System.clearProperty("jackut.snapshot");
+
+            new File("users.json").delete();
+            new File("communities.json").delete();
+            new File("jackut.snapshot").delete();
+            new File("jackut.mapped").delete();
+        }
+    }
+
+    /**
+     * Gives every user a few friends, a message, a profile attribute and a community
+     * shared with its neighbours; one user in a hundred posts to its community.
+     */
+
+    private static void populate(Database database, int scale) {
+        for (int i = 0; i < scale; i++) {
+            database.newUser("user" + i, "password" + i, "User " + i);
+        }
+
+        for (int i = 0; i < scale; i++) {
+            String session = database.startSession("user" + i, "password" + i);
+            database.editProfile(session, "cidade", "Maceio");
+            for (int f = 1; f <= FRIENDS; f++) {
+                database.addFriend(session, "user" + ((i + f * 7919L) % scale));
+            }
+            database.sendMessage(session, "user" + ((i + 1) % scale), "Oi, tudo bem?");
+
+            String community = "community" + (i / COMMUNITY_SIZE);
+            if (i % COMMUNITY_SIZE == 0) {
+                database.createCommunity(session, community, "Comunidade " + i);
+            } else {
+                database.addToCommunity(session, community);
+            }
+            if (i % 100 == 0) {
+                database.sendCommunityMessage(session, community, "Post de user" + i);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.system.Database;
+import br.ufal.ic.p2.jackut.system.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the time the {@link Database} constructor takes to load a snapshot written by the
+ * streaming writer against one written in the old object-graph format.
+ * The old format nests every reachable user inside the first one that refers to it, and Jackson
+ * refuses documents nested deeper than 1000 levels, so users are befriended in small groups and
+ * the benchmark runs on a thread with a large stack.
+ */
+
+public class StartupBenchmark {
+
+    private static final int[] SCALES = {10_000, 50_000, 200_000};
+    private static final int FRIENDS = 5;
+
+    public static void main(String[] args) throws InterruptedException {
+        Thread thread = new Thread(null, StartupBenchmark::run, "startup-benchmark", 2L << 30);
+        thread.start();
+        thread.join();
+    }
+
+    private static void run() {
+        for (int scale : SCALES) {
+            Database database = Bench.newDatabase();
+            populate(database, scale);
+
+            database.shutdown();
+            Bench.report("streaming users.json size", scale, new File("users.json").length() / 1024.0, "KiB");
+            Bench.report("streaming load", scale, Bench.millis(Bench::newDatabase), "ms");
+
+            List<User> users = new ArrayList<>();
+            for (int i = 0; i < scale; i++) {
+                users.add(database.findUser("user" + i));
+            }
+            try {
+                new ObjectMapper().writeValue(new File("users.json"), users);
+                new ObjectMapper().writeValue(new File("communities.json"), new ArrayList<>());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            Bench.report("legacy users.json size", scale, new File("users.json").length() / 1024.0, "KiB");
+            Bench.report("legacy load", scale, Bench.millis(Bench::newDatabase), "ms");
+
+            new File("users.json").delete();
+            new File("communities.json").delete();
+        }
+    }
+
+    /**
+     * Creates the users in groups where everyone is friends with everyone else,
+     * and has each user send a couple of messages inside the group.
+     */
+
+    private static void populate(Database database, int scale) {
+        for (int i = 0; i < scale; i++) {
+            database.newUser("user" + i, "password", "User " + i);
+        }
+
+        for (int i = 0; i < scale; i++) {
+            String session = database.startSession("user" + i, "password");
+            int group = i - i % (FRIENDS + 1);
+            for (int f = group; f <= group + FRIENDS && f < scale; f++) {
+                if (f == i) {
+                    continue;
+                }
+                String friend = "user" + f;
+                database.addFriend(session, friend);
+                if (f - group < 2) {
+                    database.sendMessage(session, friend, "Recado " + i + " para " + friend);
+                }
+            }
+        }
+    }
+}
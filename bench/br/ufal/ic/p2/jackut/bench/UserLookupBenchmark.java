@@ -0,0 +1,33 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.system.Database;
+
+/**
+ * Measures {@link Database#findUser} and {@link Database#newUser} as the number of accounts grows.
+ * Both should stay flat from 1k to 1M users.
+ */
+
+public class UserLookupBenchmark {
+
+    private static final int[] SCALES = {1_000, 10_000, 100_000, 1_000_000};
+    private static final int LOOKUPS = 200_000;
+
+    public static void main(String[] args) {
+        for (int scale : SCALES) {
+            Database database = Bench.newDatabase();
+
+            double create = Bench.millis(() -> {
+                for (int i = 0; i < scale; i++) {
+                    database.newUser("user" + i, "password", "User " + i);
+                }
+            });
+            Bench.report("newUser (per user)", scale, create * 1_000_000.0 / scale, "ns/op");
+
+            String[] logins = new String[LOOKUPS];
+            for (int i = 0; i < LOOKUPS; i++) {
+                logins[i] = "user" + ((i * 7919L) % scale);
+            }
+            Bench.report("findUser", scale, Bench.nanosPerOp(LOOKUPS, i -> database.findUser(logins[i])), "ns/op");
+        }
+    }
+}
@@ -21,6 +21,9 @@ public class Main {
 //                "tests/us8_2.txt",
 //                "tests/us9_1.txt",
 //                "tests/us9_2.txt",
+//                "tests/us9_3.txt",
+//                "tests/us10_1.txt",
+//                "tests/us11_1.txt",
         };
         EasyAccept.main(args2);
     }
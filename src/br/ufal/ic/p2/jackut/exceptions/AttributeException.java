@@ -4,4 +4,16 @@ public class AttributeException extends RuntimeException {
     public AttributeException(String message) {
         super(message);
     }
+
+    /**
+     * Creates an exception, optionally without a stack trace, for expected failures such as
+     * a profile field never filled in. See {@link UserException#UserException(String, boolean)}.
+     *
+     * @param message            The message shown to the user.
+     * @param writableStackTrace Whether the stack trace is filled in.
+     */
+
+    public AttributeException(String message, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+    }
 }
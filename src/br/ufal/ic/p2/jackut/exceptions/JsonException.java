@@ -6,4 +6,8 @@ public class JsonException extends RuntimeException {
         super(message);
     }
 
+    public JsonException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
 }
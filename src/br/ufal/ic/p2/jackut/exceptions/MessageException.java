@@ -4,4 +4,16 @@ public class MessageException extends RuntimeException {
     public MessageException(String message) {
         super(message);
     }
+
+    /**
+     * Creates an exception, optionally without a stack trace, for expected failures such as
+     * an empty inbox. See {@link UserException#UserException(String, boolean)}.
+     *
+     * @param message            The message shown to the user.
+     * @param writableStackTrace Whether the stack trace is filled in.
+     */
+
+    public MessageException(String message, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+    }
 }
@@ -0,0 +1,7 @@
+package br.ufal.ic.p2.jackut.exceptions;
+
+public class StorageException extends RuntimeException {
+    public StorageException(String message) {
+        super(message);
+    }
+}
@@ -4,4 +4,16 @@ public class UserException extends RuntimeException {
     public UserException(String message) {
         super(message);
     }
+
+    /**
+     * Creates an exception, optionally without a stack trace. Failures that are part of normal
+     * use, such as a wrong password, are created once without one and thrown as often as needed.
+     *
+     * @param message            The message shown to the user.
+     * @param writableStackTrace Whether the stack trace is filled in.
+     */
+
+    public UserException(String message, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+    }
 }
@@ -1,117 +1,180 @@
 package br.ufal.ic.p2.jackut.facades;
 
 import br.ufal.ic.p2.jackut.system.Database;
+import br.ufal.ic.p2.jackut.system.Metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 public class Facade {
+    private static final Metrics.Operation ZERAR_SISTEMA = Metrics.operation("facade.zerarSistema");
+    private static final Metrics.Operation CRIAR_USUARIO = Metrics.operation("facade.criarUsuario");
+    private static final Metrics.Operation ABRIR_SESSAO = Metrics.operation("facade.abrirSessao");
+    private static final Metrics.Operation GET_ATRIBUTO_USUARIO = Metrics.operation("facade.getAtributoUsuario");
+    private static final Metrics.Operation EDITAR_PERFIL = Metrics.operation("facade.editarPerfil");
+    private static final Metrics.Operation ADICIONAR_AMIGO = Metrics.operation("facade.adicionarAmigo");
+    private static final Metrics.Operation EH_AMIGO = Metrics.operation("facade.ehAmigo");
+    private static final Metrics.Operation GET_AMIGOS = Metrics.operation("facade.getAmigos");
+    private static final Metrics.Operation GET_AMIGOS_EM_COMUM = Metrics.operation("facade.getAmigosEmComum");
+    private static final Metrics.Operation GET_SUGESTOES_DE_AMIGOS = Metrics.operation("facade.getSugestoesDeAmigos");
+    private static final Metrics.Operation GET_NUMERO_DE_AMIGOS = Metrics.operation("facade.getNumeroDeAmigos");
+    private static final Metrics.Operation ENVIAR_RECADO = Metrics.operation("facade.enviarRecado");
+    private static final Metrics.Operation ENVIAR_RECADOS = Metrics.operation("facade.enviarRecados");
+    private static final Metrics.Operation LER_RECADO = Metrics.operation("facade.lerRecado");
+    private static final Metrics.Operation ENCERRAR_SISTEMA = Metrics.operation("facade.encerrarSistema");
+    private static final Metrics.Operation CRIAR_COMUNIDADE = Metrics.operation("facade.criarComunidade");
+    private static final Metrics.Operation GET_DESCRICAO_COMUNIDADE = Metrics.operation("facade.getDescricaoComunidade");
+    private static final Metrics.Operation GET_DONO_COMUNIDADE = Metrics.operation("facade.getDonoComunidade");
+    private static final Metrics.Operation GET_MEMBROS_COMUNIDADE = Metrics.operation("facade.getMembrosComunidade");
+    private static final Metrics.Operation ADICIONAR_COMUNIDADE = Metrics.operation("facade.adicionarComunidade");
+    private static final Metrics.Operation GET_COMUNIDADES = Metrics.operation("facade.getComunidades");
+    private static final Metrics.Operation ENVIAR_MENSAGEM = Metrics.operation("facade.enviarMensagem");
+    private static final Metrics.Operation ENVIAR_MENSAGENS = Metrics.operation("facade.enviarMensagens");
+    private static final Metrics.Operation LER_MENSAGEM = Metrics.operation("facade.lerMensagem");
+    private static final Metrics.Operation EH_FA = Metrics.operation("facade.ehFa");
+    private static final Metrics.Operation ADICIONAR_IDOLO = Metrics.operation("facade.adicionarIdolo");
+    private static final Metrics.Operation GET_FAS = Metrics.operation("facade.getFas");
+    private static final Metrics.Operation ADICIONAR_PAQUERA = Metrics.operation("facade.adicionarPaquera");
+    private static final Metrics.Operation EH_PAQUERA = Metrics.operation("facade.ehPaquera");
+    private static final Metrics.Operation GET_PAQUERAS = Metrics.operation("facade.getPaqueras");
+    private static final Metrics.Operation ADICIONAR_INIMIGO = Metrics.operation("facade.adicionarInimigo");
+    private static final Metrics.Operation REMOVER_USUARIO = Metrics.operation("facade.removerUsuario");
+
     private Database DB = new Database();
 
     public void zerarSistema() {
-        DB.flush();
+        Metrics.run(ZERAR_SISTEMA, () -> DB.flush());
     }
 
     public void criarUsuario(String login, String senha, String nome) {
-        DB.newUser(login, senha, nome);
+        Metrics.run(CRIAR_USUARIO, () -> DB.newUser(login, senha, nome));
     }
 
     public String abrirSessao(String login, String senha) {
-        return DB.startSession(login, senha);
+        return Metrics.call(ABRIR_SESSAO, () -> DB.tryStartSession(login, senha).orThrow());
     }
 
     public String getAtributoUsuario(String login, String atributo) {
-        return DB.getUserAttribute(login, atributo);
+        return Metrics.call(GET_ATRIBUTO_USUARIO, () -> DB.tryGetUserAttribute(login, atributo).orThrow());
     }
 
     public void editarPerfil(String id, String atributo, String valor) {
-        DB.editProfile(id, atributo, valor);
+        Metrics.run(EDITAR_PERFIL, () -> DB.editProfile(id, atributo, valor));
     }
 
     public void adicionarAmigo(String id, String amigo) {
-        DB.addFriend(id, amigo);
+        Metrics.run(ADICIONAR_AMIGO, () -> DB.tryAddFriend(id, amigo).orThrow());
     }
 
     public boolean ehAmigo(String login, String amigo) {
-        return DB.areFriends(login, amigo);
+        return Metrics.call(EH_AMIGO, () -> DB.areFriends(login, amigo));
     }
 
     public String getAmigos(String login) {
-        return DB.getFriends(login);
+        return Metrics.call(GET_AMIGOS, () -> DB.getFriends(login));
+    }
+
+    public String getAmigosEmComum(String login, String outro) {
+        return Metrics.call(GET_AMIGOS_EM_COMUM, () -> DB.getMutualFriends(login, outro));
+    }
+
+    public String getSugestoesDeAmigos(String login) {
+        return Metrics.call(GET_SUGESTOES_DE_AMIGOS, () -> DB.getFriendSuggestions(login));
+    }
+
+    public int getNumeroDeAmigos(String login) {
+        return Metrics.call(GET_NUMERO_DE_AMIGOS, () -> DB.countFriends(login));
     }
 
     public void enviarRecado(String id, String destinatario, String mensagem) {
-        DB.sendMessage(id, destinatario, mensagem);
+        Metrics.run(ENVIAR_RECADO, () -> DB.sendMessage(id, destinatario, mensagem));
+    }
+
+    public Map<String, String> enviarRecados(String id, String destinatarios, String mensagem) {
+        return Metrics.call(ENVIAR_RECADOS, () -> DB.sendMessages(id, split(destinatarios), mensagem));
     }
 
     public String lerRecado(String id) {
-        return DB.readMessage(id);
+        return Metrics.call(LER_RECADO, () -> DB.tryReadMessage(id).orThrow());
     }
 
     public void encerrarSistema() {
-        DB.shutdown();
+        Metrics.run(ENCERRAR_SISTEMA, () -> DB.shutdown());
         //Grava o cadastro em arquivo e encerra o programa.
         // Atingir o final de um script (final de arquivo)  equivalente a encontrar este comando.
     }
 
     public void criarComunidade(String sessao, String nome, String descricao) {
-        DB.createCommunity(sessao, nome, descricao);
+        Metrics.run(CRIAR_COMUNIDADE, () -> DB.createCommunity(sessao, nome, descricao));
     }
 
     public String getDescricaoComunidade(String name) {
-        return DB.getCommunityDescription(name);
+        return Metrics.call(GET_DESCRICAO_COMUNIDADE, () -> DB.getCommunityDescription(name));
     }
 
     public String getDonoComunidade(String nome) {
-        return DB.getCommunityOwner(nome);
+        return Metrics.call(GET_DONO_COMUNIDADE, () -> DB.getCommunityOwner(nome));
     }
 
     public String getMembrosComunidade(String nome) {
-        return DB.getCommunityMembers(nome);
+        return Metrics.call(GET_MEMBROS_COMUNIDADE, () -> DB.getCommunityMembers(nome));
     }
 
     public void adicionarComunidade(String sessao, String nome) {
-        DB.addToCommunity(sessao, nome);
+        Metrics.run(ADICIONAR_COMUNIDADE, () -> DB.addToCommunity(sessao, nome));
     }
 
     public String getComunidades(String login) {
-        return DB.getUserCommunities(login);
+        return Metrics.call(GET_COMUNIDADES, () -> DB.getUserCommunities(login));
     }
 
     public void enviarMensagem(String sessao, String comunidade, String mensagem) {
-        DB.sendCommunityMessage(sessao, comunidade, mensagem);
+        Metrics.run(ENVIAR_MENSAGEM, () -> DB.sendCommunityMessage(sessao, comunidade, mensagem));
+    }
+
+    public Map<String, String> enviarMensagens(String sessao, String comunidades, String mensagem) {
+        return Metrics.call(ENVIAR_MENSAGENS, () -> DB.sendCommunityMessages(sessao, split(comunidades), mensagem));
     }
 
     public String lerMensagem(String sessao) {
-        return DB.readPosts(sessao);
+        return Metrics.call(LER_MENSAGEM, () -> DB.tryReadPosts(sessao).orThrow());
     }
 
     public boolean ehFa(String login, String idolo) {
-        return DB.isFan(login, idolo);
+        return Metrics.call(EH_FA, () -> DB.isFan(login, idolo));
     }
 
     public void adicionarIdolo(String sessao, String idolo) {
-        DB.addIdol(sessao, idolo);
+        Metrics.run(ADICIONAR_IDOLO, () -> DB.addIdol(sessao, idolo));
     }
 
-    public String getFas (String login) {
-        return DB.getFans(login);
+    public String getFas(String login) {
+        return Metrics.call(GET_FAS, () -> DB.getFans(login));
     }
 
     public void adicionarPaquera(String sessao, String paquera) {
-        DB.addFlirt(sessao, paquera);
+        Metrics.run(ADICIONAR_PAQUERA, () -> DB.addFlirt(sessao, paquera));
     }
 
     public boolean ehPaquera(String login, String paquera) {
-        return DB.isFlirt(login, paquera);
+        return Metrics.call(EH_PAQUERA, () -> DB.isFlirt(login, paquera));
     }
 
     public String getPaqueras(String login) {
-        return DB.getFlirts(login);
+        return Metrics.call(GET_PAQUERAS, () -> DB.getFlirts(login));
     }
 
     public void adicionarInimigo(String sessao, String inimigo) {
-        DB.addEnemy(sessao, inimigo);
+        Metrics.run(ADICIONAR_INIMIGO, () -> DB.addEnemy(sessao, inimigo));
     }
 
     public void removerUsuario(String sessao) {
-        DB.deleteAccount(sessao);
+        Metrics.run(REMOVER_USUARIO, () -> DB.deleteAccount(sessao));
+    }
+
+    // Os scripts de aceitao s passam texto, ento listas chegam separadas por vrgulas.
+    private static List<String> split(String valores) {
+        return valores == null || valores.isEmpty() ? List.of() : Arrays.asList(valores.split(","));
     }
 }
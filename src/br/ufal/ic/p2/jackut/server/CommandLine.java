@@ -0,0 +1,150 @@
+package br.ufal.ic.p2.jackut.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A line in the EasyAccept command syntax of the acceptance tests:
+ * <pre>
+ * criarUsuario login=jpsauve senha=sauvejp nome="Jacques Sauve"
+ * s=abrirSessao login=jpsauve senha=sauvejp
+ * expect "Jacques Sauve" getAtributoUsuario login=jpsauve atributo=nome
+ * expectError "Usu&aacute;rio n&atilde;o cadastrado." getAtributoUsuario login=nobody atributo=nome
+ * </pre>
+ * Arguments are passed by position; their names are only for the reader. Double quotes group
+ * a value containing spaces, and {@code ${name}} refers to a variable assigned earlier. As in
+ * EasyAccept, a value left empty without quotes, such as {@code login=}, is null, and a
+ * variable that was never assigned is left as written.
+ *
+ * @param variable    The variable the result is assigned to, or null.
+ * @param expected    The result or error message the line expects, or null.
+ * @param expectError Whether the line expects the command to fail with {@code expected}.
+ * @param command     The name of the command.
+ * @param arguments   The argument values, unexpanded, null for values left empty.
+ */
+
+public record CommandLine(String variable, String expected, boolean expectError, String command, List<String> arguments) {
+
+    /**
+     * Parses a line.
+     *
+     * @param line The line.
+     * @return The parsed line, or null if the line is blank or a comment.
+     * @throws IllegalArgumentException if the line is malformed.
+     */
+
+    public static CommandLine parse(String line) {
+        line = line.strip();
+        if (line.isEmpty() || line.startsWith("#")) {
+            return null;
+        }
+
+        List<String[]> tokens = tokenize(line);
+        String variable = null;
+        String expected = null;
+        boolean expectError = false;
+        int first = 0;
+
+        String[] head = tokens.get(0);
+        if (head[0] == null && (head[1].equals("expect") || head[1].equals("expectError"))) {
+            if (tokens.size() < 3) {
+                throw new IllegalArgumentException(head[1] + " needs a value and a command.");
+            }
+            expectError = head[1].equals("expectError");
+            expected = tokens.get(1)[0] == null ? tokens.get(1)[1] : tokens.get(1)[0] + "=" + tokens.get(1)[1];
+            first = 2;
+        } else if (head[0] != null) {
+            variable = head[0];
+        }
+
+        String command = tokens.get(first)[1];
+        List<String> arguments = new ArrayList<>(tokens.size() - first - 1);
+        for (int i = first + 1; i < tokens.size(); i++) {
+            arguments.add(tokens.get(i)[1]);
+        }
+        return new CommandLine(variable, expected, expectError, command, arguments);
+    }
+
+    /**
+     * Replaces each {@code ${name}} in a value by the variable's value. Variables that aren't
+     * defined are left as written.
+     *
+     * @param value     The value, or null.
+     * @param variables Looks a variable up by name, returning null if it isn't defined.
+     * @return The expanded value, or null if the value is null.
+     */
+
+    public static String expand(String value, Function<String, String> variables) {
+        int start = value == null ? -1 : value.indexOf("${");
+        if (start < 0) {
+            return value;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        int from = 0;
+        while (start >= 0) {
+            int end = value.indexOf('}', start);
+            if (end < 0) {
+                break;
+            }
+            String name = value.substring(start + 2, end);
+            String replacement = variables.apply(name);
+            sb.append(value, from, start).append(replacement == null ? value.substring(start, end + 1) : replacement);
+            from = end + 1;
+            start = value.indexOf("${", from);
+        }
+        return sb.append(value, from, value.length()).toString();
+    }
+
+    /**
+     * Splits a line on spaces outside double quotes. Each token is a pair of the name before its
+     * first unquoted {@code =}, or null if there is none, and the value, without its quotes, or
+     * null if it is empty and unquoted.
+     */
+
+    private static List<String[]> tokenize(String line) {
+        List<String[]> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        String name = null;
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        boolean pending = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                wasQuoted = true;
+                pending = true;
+            } else if (!quoted && Character.isWhitespace(c)) {
+                if (pending) {
+                    tokens.add(token(name, token, wasQuoted));
+                    token.setLength(0);
+                    name = null;
+                    wasQuoted = false;
+                    pending = false;
+                }
+            } else if (!quoted && c == '=' && name == null) {
+                name = token.toString();
+                token.setLength(0);
+                pending = true;
+            } else {
+                token.append(c);
+                pending = true;
+            }
+        }
+
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated string.");
+        }
+        if (pending) {
+            tokens.add(token(name, token, wasQuoted));
+        }
+        return tokens;
+    }
+
+    private static String[] token(String name, StringBuilder value, boolean quoted) {
+        return new String[]{name, value.isEmpty() && !quoted ? null : value.toString()};
+    }
+}
@@ -0,0 +1,115 @@
+package br.ufal.ic.p2.jackut.server;
+
+import br.ufal.ic.p2.jackut.facades.Facade;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The commands of the {@link Facade}, looked up by name and number of arguments once, as
+ * EasyAccept looks them up on every line. Argument values are strings, with numbers written in
+ * decimal.
+ */
+
+public final class Commands {
+
+    private static final Map<String, Method> METHODS = new HashMap<>();
+    /**
+     * Commands that act on the whole system rather than on behalf of a user.
+     */
+    private static final Set<String> ADMINISTRATIVE = Set.of("zerarSistema", "encerrarSistema");
+
+    static {
+        for (Method method : Facade.class.getMethods()) {
+            if (method.getDeclaringClass() == Facade.class) {
+                METHODS.put(key(method.getName(), method.getParameterCount()), method);
+            }
+        }
+    }
+
+    private Commands() {
+    }
+
+    /**
+     * Finds the facade method a command calls.
+     *
+     * @param name      The name of the command.
+     * @param arguments The number of arguments.
+     * @return The method.
+     * @throws IllegalArgumentException if the facade has no such method.
+     */
+
+    public static Method find(String name, int arguments) {
+        Method method = METHODS.get(key(name, arguments));
+        if (method == null) {
+            throw new IllegalArgumentException("Unknown command " + name + " with " + arguments + " arguments.");
+        }
+        return method;
+    }
+
+    /**
+     * Returns true if a method acts on the whole system, as erasing or saving every user does,
+     * rather than on behalf of one user.
+     *
+     * @param method The method.
+     * @return true if the method is administrative.
+     */
+
+    public static boolean isAdministrative(Method method) {
+        return ADMINISTRATIVE.contains(method.getName());
+    }
+
+    /**
+     * Converts argument values to the parameter types of a method.
+     *
+     * @param method The method.
+     * @param values The values, one per parameter, null where a value was left empty.
+     * @return The arguments.
+     * @throws IllegalArgumentException if a number is malformed or missing.
+     */
+
+    public static Object[] convert(Method method, String[] values) {
+        Class<?>[] types = method.getParameterTypes();
+        Object[] arguments = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == int.class) {
+                arguments[i] = Integer.parseInt(values[i]);
+            } else {
+                arguments[i] = values[i];
+            }
+        }
+        return arguments;
+    }
+
+    /**
+     * Calls a method of the facade, throwing what the method throws.
+     *
+     * @param facade    The facade.
+     * @param method    The method.
+     * @param arguments The arguments, already converted.
+     * @return What the method returns, or null if it returns nothing.
+     */
+
+    public static Object invoke(Facade facade, Method method, Object[] arguments) {
+        try {
+            return method.invoke(facade, arguments);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String key(String name, int arguments) {
+        return name + "/" + arguments;
+    }
+}
@@ -0,0 +1,182 @@
+package br.ufal.ic.p2.jackut.server;
+
+import br.ufal.ic.p2.jackut.facades.Facade;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A client connected to the {@link Server}, served by a thread of its own. Each line the client
+ * sends is run as a command and answered with one line, in order; blank lines and comments are
+ * not answered. Replies are written out once the client has nothing more buffered, so a client
+ * that sends many lines at once gets their replies in as few writes.
+ * <p>
+ * Lines longer than {@code jackut.server.maxLine} characters, 65536 by default, are answered
+ * with an error and skipped without being kept in memory.
+ */
+
+final class Connection implements Runnable {
+
+    private static final int MAX_LINE = Integer.getInteger("jackut.server.maxLine", 65_536);
+
+    private final SocketChannel channel;
+    private final Facade facade;
+    private final boolean administrative;
+    private final Set<Connection> open;
+    private final Map<String, String> variables = new HashMap<>();
+    private final StringBuilder line = new StringBuilder();
+    private boolean tooLong;
+
+    /**
+     * Creates a connection.
+     *
+     * @param channel        The channel of the client.
+     * @param facade         The facade commands run against.
+     * @param administrative Whether the client may run administrative commands.
+     * @param open           The open connections, which this one leaves when it closes.
+     */
+
+    Connection(SocketChannel channel, Facade facade, boolean administrative, Set<Connection> open) {
+        this.channel = channel;
+        this.facade = facade;
+        this.administrative = administrative;
+        this.open = open;
+    }
+
+    @Override
+    public void run() {
+        try (channel;
+             BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8))) {
+            String text;
+            while ((text = readLine(in)) != null) {
+                if (text.strip().equals("quit")) {
+                    out.write("OK\n");
+                    break;
+                }
+
+                String reply = tooLong ? "ERR Line longer than " + MAX_LINE + " characters." : execute(text);
+                if (reply != null) {
+                    out.write(reply);
+                    out.write('\n');
+                }
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // The client went away or the server is closing; there is no one left to answer.
+        } finally {
+            open.remove(this);
+        }
+    }
+
+    /**
+     * Reads a line, ended by a line feed or the end of the stream, without its terminator. Only
+     * the first {@link #MAX_LINE} characters are kept; {@link #tooLong} tells if there were more.
+     *
+     * @return The line, or null at the end of the stream.
+     */
+
+    private String readLine(BufferedReader in) throws IOException {
+        line.setLength(0);
+        tooLong = false;
+        int c = in.read();
+        if (c < 0) {
+            return null;
+        }
+
+        for (; c >= 0 && c != '\n'; c = in.read()) {
+            if (line.length() < MAX_LINE) {
+                line.append((char) c);
+            } else {
+                tooLong = true;
+            }
+        }
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+            line.setLength(length - 1);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Closes the channel, which ends {@link #run()} at its next read or write.
+     */
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Runs one line.
+     *
+     * @param text The line.
+     * @return The reply: {@code OK}, followed by the result if there is one, or {@code ERR} followed
+     * by the error message. Null if the line is blank or a comment.
+     */
+
+    String execute(String text) {
+        CommandLine line;
+        Method method;
+        Object[] arguments;
+        String expected;
+        try {
+            line = CommandLine.parse(text);
+            if (line == null) {
+                return null;
+            }
+            method = Commands.find(line.command(), line.arguments().size());
+            if (!administrative && Commands.isAdministrative(method)) {
+                return "ERR Command " + line.command() + " is disabled; start the server with -Djackut.server.admin=true to allow it.";
+            }
+            List<String> templates = line.arguments();
+            String[] values = new String[templates.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = CommandLine.expand(templates.get(i), variables::get);
+            }
+            arguments = Commands.convert(method, values);
+            expected = line.expected() == null ? null : CommandLine.expand(line.expected(), variables::get);
+        } catch (IllegalArgumentException e) {
+            return "ERR " + e.getMessage();
+        }
+
+        Object result;
+        try {
+            result = Commands.invoke(facade, method, arguments);
+        } catch (RuntimeException e) {
+            String message = e.getMessage() == null ? e.toString() : e.getMessage();
+            if (line.expectError() && expected.equals(message)) {
+                return "OK " + message;
+            }
+            return "ERR " + message;
+        }
+
+        String value = result == null ? null : result.toString();
+        if (line.variable() != null) {
+            variables.put(line.variable(), String.valueOf(value));
+        }
+        if (line.expectError()) {
+            return "ERR Expected error <" + expected + ">, but no error occurred.";
+        }
+        if (expected != null && !expected.equals(value)) {
+            return "ERR Expected <" + expected + ">, but was <" + value + ">.";
+        }
+        return value == null ? "OK" : "OK " + value;
+    }
+}
@@ -0,0 +1,196 @@
+package br.ufal.ic.p2.jackut.server;
+
+import br.ufal.ic.p2.jackut.facades.Facade;
+import br.ufal.ic.p2.jackut.system.Metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves a {@link Facade} to clients over TCP or a Unix domain socket. Clients send lines in the
+ * syntax of the acceptance tests, described in {@link CommandLine}, and get one reply per line:
+ * <pre>
+ * &gt; criarUsuario login=jpsauve senha=sauvejp nome="Jacques Sauve"
+ * &lt; OK
+ * &gt; s=abrirSessao login=jpsauve senha=sauvejp
+ * &lt; OK 1
+ * &gt; getAtributoUsuario login=jpsauve atributo=cidade
+ * &lt; ERR Atributo n&atilde;o preenchido.
+ * &gt; quit
+ * &lt; OK
+ * </pre>
+ * Text is UTF-8. Variables belong to the connection that assigned them. A client may send many
+ * lines without waiting for their replies, which come back in order.
+ * <p>
+ * Every connection has a thread of its own, a virtual thread where the runtime has them, and
+ * all of them share the facade, whose database is safe to call from many threads.
+ * <p>
+ * Commands that act on the whole system, {@code zerarSistema} and {@code encerrarSistema}, are
+ * refused unless the server is started with {@code -Djackut.server.admin=true}, so that any
+ * client able to connect can't erase the database or make it write a full snapshot at will.
+ * <p>
+ * Usage: {@code Server [port | host:port | unix:path]}. The default is port 7070 on the
+ * loopback interface. The database is saved when the server is stopped.
+ */
+
+public final class Server implements Closeable {
+
+    private static final String ADDRESS = "7070";
+    private static final boolean ADMINISTRATIVE = Boolean.getBoolean("jackut.server.admin");
+
+    private final Facade facade;
+    private final ServerSocketChannel listener;
+    private final ExecutorService threads;
+    private final boolean virtual;
+    private final Set<Connection> open = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a server listening on an address.
+     *
+     * @param facade  The facade commands run against.
+     * @param address The address, an {@link InetSocketAddress} or a {@link UnixDomainSocketAddress}.
+     * @throws IOException if the address can't be bound.
+     */
+
+    public Server(Facade facade, SocketAddress address) throws IOException {
+        this.facade = facade;
+        if (address instanceof UnixDomainSocketAddress unix) {
+            Files.deleteIfExists(unix.getPath());
+            this.listener = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            this.listener = ServerSocketChannel.open();
+            this.listener.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        }
+        this.listener.bind(address);
+
+        ExecutorService virtualThreads = virtualThreads();
+        this.virtual = virtualThreads != null;
+        this.threads = virtual ? virtualThreads : Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "jackut-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Metrics.gauge("server.connections", this, server -> server.open.size());
+    }
+
+    public static void main(String[] args) throws IOException {
+        Facade facade = new Facade();
+        Server server = new Server(facade, address(args.length > 0 ? args[0] : ADDRESS));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            facade.encerrarSistema();
+        }));
+
+        System.err.println("Jackut listening on " + server.address()
+                + (server.virtual ? " (virtual threads)" : " (platform threads)"));
+        server.serve();
+    }
+
+    /**
+     * Parses an address given as {@code port}, {@code host:port} or {@code unix:path}.
+     *
+     * @param text The address.
+     * @return The socket address.
+     */
+
+    public static SocketAddress address(String text) {
+        if (text.startsWith("unix:")) {
+            return UnixDomainSocketAddress.of(text.substring("unix:".length()));
+        }
+
+        int colon = text.lastIndexOf(':');
+        if (colon < 0) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(text));
+        }
+        return new InetSocketAddress(text.substring(0, colon), Integer.parseInt(text.substring(colon + 1)));
+    }
+
+    /**
+     * Returns the address the server is bound to, which tells the port chosen for port 0.
+     *
+     * @return The address.
+     * @throws IOException if the server is closed.
+     */
+
+    public SocketAddress address() throws IOException {
+        return listener.getLocalAddress();
+    }
+
+    /**
+     * Accepts connections until the server is closed, handing each to a thread of its own.
+     *
+     * @throws IOException if accepting fails for another reason.
+     */
+
+    public void serve() throws IOException {
+        boolean tcp = !(listener.getLocalAddress() instanceof UnixDomainSocketAddress);
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = listener.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            }
+
+            if (tcp) {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            Connection connection = new Connection(channel, facade, ADMINISTRATIVE, open);
+            open.add(connection);
+            threads.execute(connection);
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones. Commands already running finish.
+     */
+
+    @Override
+    public void close() {
+        SocketAddress address = null;
+        try {
+            address = listener.getLocalAddress();
+            listener.close();
+        } catch (IOException ignored) {
+        }
+
+        for (Connection connection : open) {
+            connection.close();
+        }
+        threads.shutdown();
+
+        if (address instanceof UnixDomainSocketAddress unix) {
+            try {
+                Files.deleteIfExists(unix.getPath());
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Returns an executor starting a virtual thread per task, or null if the runtime has none.
+     * It is looked up by name so the server still builds and runs on runtimes before them.
+     */
+
+    private static ExecutorService virtualThreads() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+}
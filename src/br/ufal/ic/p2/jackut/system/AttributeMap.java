@@ -0,0 +1,136 @@
+package br.ufal.ic.p2.jackut.system;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The profile attributes of a user, in the order they were first set.
+ * <p>
+ * Names and values are kept in two arrays by position. Attribute names repeat across users,
+ * so each name is interned in a pool shared by every map and the arrays only hold references.
+ * Small maps are scanned; past {@value #INDEX_THRESHOLD} attributes an open-addressing table of
+ * positions is kept alongside the arrays, so lookups take constant time.
+ */
+
+final class AttributeMap {
+    private static final ConcurrentHashMap<String, String> NAMES = new ConcurrentHashMap<>();
+    private static final int INDEX_THRESHOLD = 8;
+    private static final String[] EMPTY = {};
+
+    private String[] names = EMPTY;
+    private String[] values = EMPTY;
+    private int size;
+    /**
+     * Position plus one of the attribute in each slot, 0 for an empty slot;
+     * null while the map is small.
+     */
+    private int[] index;
+
+    /**
+     * Returns the number of attributes.
+     *
+     * @return The number of attributes.
+     */
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the name of an attribute.
+     *
+     * @param position The position of the attribute, in the order attributes were first set.
+     * @return The name.
+     */
+
+    String name(int position) {
+        return names[position];
+    }
+
+    /**
+     * Returns the value of an attribute.
+     *
+     * @param position The position of the attribute, in the order attributes were first set.
+     * @return The value.
+     */
+
+    String value(int position) {
+        return values[position];
+    }
+
+    /**
+     * Returns the position of an attribute.
+     *
+     * @param name The name of the attribute.
+     * @return The position, or -1 if the attribute isn't set.
+     */
+
+    int find(String name) {
+        if (index == null) {
+            for (int i = 0; i < size; i++) {
+                if (names[i] == name || Objects.equals(names[i], name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int mask = index.length - 1;
+        for (int slot = spread(name) & mask; ; slot = (slot + 1) & mask) {
+            int position = index[slot] - 1;
+            if (position < 0) {
+                return -1;
+            }
+            if (names[position] == name || Objects.equals(names[position], name)) {
+                return position;
+            }
+        }
+    }
+
+    /**
+     * Sets an attribute, keeping its position if it was already set.
+     *
+     * @param name  The name of the attribute.
+     * @param value The value.
+     */
+
+    void put(String name, String value) {
+        int position = find(name);
+        if (position >= 0) {
+            values[position] = value;
+            return;
+        }
+
+        if (size == names.length) {
+            names = Arrays.copyOf(names, Math.max(2, size * 2));
+            values = Arrays.copyOf(values, names.length);
+        }
+        names[size] = name != null ? NAMES.computeIfAbsent(name, n -> n) : null;
+        values[size] = value;
+        size++;
+
+        if (index != null && size * 2 <= index.length) {
+            insert(size - 1);
+        } else if (size > INDEX_THRESHOLD) {
+            index = new int[Integer.highestOneBit(size) << 2];
+            for (int i = 0; i < size; i++) {
+                insert(i);
+            }
+        }
+    }
+
+    private void insert(int position) {
+        int mask = index.length - 1;
+        int slot = spread(names[position]) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = position + 1;
+    }
+
+    private static int spread(String name) {
+        int h = Objects.hashCode(name) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,333 @@
+package br.ufal.ic.p2.jackut.system;
+
+import br.ufal.ic.p2.jackut.exceptions.StorageException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Compact binary snapshot of the whole database, an alternative to the JSON files.
+ * <p>
+ * Layout: a {@code JKUT} magic number, the format version and the {@link WriteAheadLog.Position}
+ * the snapshot covers, then a table of every distinct
+ * string (logins, passwords, names, attributes, descriptions and message texts), the users,
+ * the communities with the posts not yet read by every member and how many of them each member
+ * has read, and finally the relationships of each user, whose timeline only holds the posts
+ * that belong to no community. Users and communities are numbered by their position, so
+ * relationships are stored as arrays of ints and every string as an index into the table.
+ */
+
+public class BinarySnapshot {
+    static final int MAGIC = 0x4A4B5554; // "JKUT"
+    static final int VERSION = 3;
+
+    private static final byte USER_SENDER = 0;
+    private static final byte SYSTEM_SENDER = 1;
+    private static final byte DETACHED_SENDER = 2;
+
+    private BinarySnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of the users and communities.
+     *
+     * @param users       The users to be written.
+     * @param communities The communities to be written.
+     * @param log         The position of the operation log the snapshot covers.
+     * @param out         The destination.
+     * @throws IOException if writing fails.
+     */
+
+    public static void write(Collection<User> users, Collection<Community> communities, WriteAheadLog.Position log,
+                             OutputStream out) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        Map<User, Integer> userIds = new IdentityHashMap<>();
+        Map<Community, Integer> communityIds = new IdentityHashMap<>();
+
+        for (User user : users) {
+            userIds.put(user, userIds.size());
+            intern(strings, user.getLogin());
+            intern(strings, user.getPassword());
+            intern(strings, user.getName());
+            AttributeMap attributes = user.getAttributeMap();
+            for (int a = 0; a < attributes.size(); a++) {
+                intern(strings, attributes.name(a));
+                intern(strings, attributes.value(a));
+            }
+            internMessages(strings, user.getInbox());
+            internMessages(strings, messages(user.getTimelinePosts()));
+        }
+        for (Community community : communities) {
+            communityIds.put(community, communityIds.size());
+            intern(strings, community.getName());
+            intern(strings, community.getDescription());
+            internMessages(strings, messages(community.getPosts()));
+        }
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(log.generation());
+        data.writeLong(log.offset());
+
+        data.writeInt(strings.size());
+        for (String string : strings.keySet()) {
+            if (string == null) {
+                data.writeInt(-1);
+                continue;
+            }
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            data.writeInt(bytes.length);
+            data.write(bytes);
+        }
+
+        data.writeInt(users.size());
+        for (User user : users) {
+            data.writeInt(strings.get(user.getLogin()));
+            data.writeInt(strings.get(user.getPassword()));
+            data.writeInt(strings.get(user.getName()));
+            AttributeMap attributes = user.getAttributeMap();
+            data.writeInt(attributes.size());
+            for (int a = 0; a < attributes.size(); a++) {
+                data.writeInt(strings.get(attributes.name(a)));
+                data.writeInt(strings.get(attributes.value(a)));
+            }
+        }
+
+        data.writeInt(communities.size());
+        for (Community community : communities) {
+            data.writeInt(strings.get(community.getName()));
+            data.writeInt(strings.get(community.getDescription()));
+            data.writeInt(userIds.get(community.getOwner()));
+            writeIds(data, community.getMembers(), userIds);
+            writePosts(data, community.getPosts(), userIds, strings);
+            List<User> readers = new ArrayList<>();
+            for (User member : community.getMembers()) {
+                if (community.readCount(member) > 0) {
+                    readers.add(member);
+                }
+            }
+            data.writeInt(readers.size());
+            for (User reader : readers) {
+                data.writeInt(userIds.get(reader));
+                data.writeInt(community.readCount(reader));
+            }
+        }
+
+        for (User user : users) {
+            writeIds(data, user.getOutgoingFriends(), userIds);
+            writeIds(data, user.getFans(), userIds);
+            writeIds(data, user.getIdols(), userIds);
+            writeIds(data, user.getFlirts(), userIds);
+            writeIds(data, user.getEnemies(), userIds);
+            data.writeInt(user.getCommunities().size());
+            for (Community community : user.getCommunities()) {
+                data.writeInt(communityIds.get(community));
+            }
+            writeMessages(data, user.getInbox(), userIds, strings);
+            writePosts(data, user.getTimelinePosts(), userIds, strings);
+        }
+
+        data.flush();
+    }
+
+    /**
+     * Loads a snapshot into the database.
+     *
+     * @param database The database receiving the users and communities.
+     * @param file     The snapshot file.
+     * @return The position of the operation log the snapshot covers; {@link WriteAheadLog.Position#NONE}
+     * for version 1 files, which didn't record it. Files before version 3 kept the posts of every
+     * community on the timeline of each member, where they are put back.
+     * @throws StorageException if the file can't be read or has an unknown format.
+     */
+
+    public static WriteAheadLog.Position read(Database database, Path file) {
+        try (DataInputStream data = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (data.readInt() != MAGIC) {
+                throw new StorageException("Formato de snapshot inv\u00e1lido.");
+            }
+            int version = data.readInt();
+            if (version < 1 || version > VERSION) {
+                throw new StorageException("Vers\u00e3o de snapshot n\u00e3o suportada.");
+            }
+            WriteAheadLog.Position log = version == 1
+                    ? WriteAheadLog.Position.NONE
+                    : new WriteAheadLog.Position(data.readLong(), data.readLong());
+
+            String[] strings = new String[data.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                int length = data.readInt();
+                if (length >= 0) {
+                    byte[] bytes = new byte[length];
+                    data.readFully(bytes);
+                    strings[i] = new String(bytes, StandardCharsets.UTF_8);
+                }
+            }
+
+            User[] users = new User[data.readInt()];
+            for (int i = 0; i < users.length; i++) {
+                String login = strings[data.readInt()];
+                String password = strings[data.readInt()];
+                String name = strings[data.readInt()];
+                users[i] = new User(login, password, name, null, null, null, null, null, null, null, null, null);
+                AttributeMap attributes = users[i].getAttributeMap();
+                for (int a = data.readInt(); a > 0; a--) {
+                    attributes.put(strings[data.readInt()], strings[data.readInt()]);
+                }
+                database.registerUser(users[i]);
+            }
+
+            Community[] communities = new Community[data.readInt()];
+            for (int i = 0; i < communities.length; i++) {
+                String name = strings[data.readInt()];
+                String description = strings[data.readInt()];
+                User owner = users[data.readInt()];
+                UserList members = new UserList();
+                readIds(data, members, users);
+                communities[i] = new Community(name, description, owner, members);
+                if (version >= 3) {
+                    List<Post> posts = readPosts(data, users, strings);
+                    Map<User, Integer> read = new HashMap<>();
+                    for (int r = data.readInt(); r > 0; r--) {
+                        read.put(users[data.readInt()], data.readInt());
+                    }
+                    communities[i].restorePosts(posts, read);
+                }
+                database.indexCommunity(communities[i]);
+            }
+
+            for (User user : users) {
+                readIds(data, user.getFriendRequests(), users);
+                readIds(data, user.getFans(), users);
+                readIds(data, user.getIdols(), users);
+                readIds(data, user.getFlirts(), users);
+                readIds(data, user.getEnemies(), users);
+                user.getCommunities().clear();
+                for (int c = data.readInt(); c > 0; c--) {
+                    user.getCommunities().add(communities[data.readInt()]);
+                }
+                readMessages(data, user.getInbox(), users, strings);
+                if (version >= 3) {
+                    user.keepPosts(readPosts(data, users, strings));
+                } else {
+                    List<Message> posts = new ArrayList<>();
+                    readMessages(data, posts, users, strings);
+                    posts.forEach(user::receivePost);
+                }
+            }
+
+            for (User user : users) {
+                user.restoreIncomingEdges();
+            }
+            return log;
+        } catch (StorageException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            throw new StorageException("Erro ao ler o snapshot.");
+        }
+    }
+
+    private static void intern(Map<String, Integer> strings, String string) {
+        strings.putIfAbsent(string, strings.size());
+    }
+
+    private static void internMessages(Map<String, Integer> strings, Collection<Message> messages) {
+        for (Message message : messages) {
+            intern(strings, message.message());
+            if (message.sender() instanceof User sender) {
+                intern(strings, sender.getLogin());
+            } else if (!(message instanceof SystemMessage)) {
+                intern(strings, String.valueOf(message.sender()));
+            }
+        }
+    }
+
+    private static List<Message> messages(List<Post> posts) {
+        List<Message> messages = new ArrayList<>(posts.size());
+        for (Post post : posts) {
+            messages.add(post.message());
+        }
+        return messages;
+    }
+
+    private static void writeIds(DataOutputStream data, UserList users, Map<User, Integer> ids) throws IOException {
+        data.writeInt(users.size());
+        for (User user : users) {
+            data.writeInt(ids.get(user));
+        }
+    }
+
+    private static void readIds(DataInputStream data, UserList target, User[] users) throws IOException {
+        for (int count = data.readInt(); count > 0; count--) {
+            target.add(users[data.readInt()]);
+        }
+    }
+
+    /**
+     * Writes messages as a sender kind, the sender and the index of the text.
+     * Senders are user IDs, nothing for system messages, or a string for posts whose
+     * sender no longer exists.
+     */
+
+    private static void writeMessages(DataOutputStream data, Collection<Message> messages, Map<User, Integer> ids, Map<String, Integer> strings) throws IOException {
+        data.writeInt(messages.size());
+        for (Message message : messages) {
+            writeMessage(data, message, ids, strings);
+        }
+    }
+
+    /**
+     * Writes posts as messages, each followed by the number that orders it across communities.
+     */
+
+    private static void writePosts(DataOutputStream data, List<Post> posts, Map<User, Integer> ids, Map<String, Integer> strings) throws IOException {
+        data.writeInt(posts.size());
+        for (Post post : posts) {
+            writeMessage(data, post.message(), ids, strings);
+            data.writeLong(post.sequence());
+        }
+    }
+
+    private static void writeMessage(DataOutputStream data, Message message, Map<User, Integer> ids, Map<String, Integer> strings) throws IOException {
+        if (message.sender() instanceof User sender && ids.containsKey(sender)) {
+            data.writeByte(USER_SENDER);
+            data.writeInt(ids.get(sender));
+        } else if (message instanceof SystemMessage) {
+            data.writeByte(SYSTEM_SENDER);
+        } else {
+            data.writeByte(DETACHED_SENDER);
+            data.writeInt(strings.get(message.sender() instanceof User sender ? sender.getLogin() : String.valueOf(message.sender())));
+        }
+        data.writeInt(strings.get(message.message()));
+    }
+
+    private static void readMessages(DataInputStream data, Collection<Message> target, User[] users, String[] strings) throws IOException {
+        for (int count = data.readInt(); count > 0; count--) {
+            target.add(readMessage(data, users, strings));
+        }
+    }
+
+    private static List<Post> readPosts(DataInputStream data, User[] users, String[] strings) throws IOException {
+        List<Post> posts = new ArrayList<>();
+        for (int count = data.readInt(); count > 0; count--) {
+            Message message = readMessage(data, users, strings);
+            posts.add(Post.restore(data.readLong(), message));
+        }
+        return posts;
+    }
+
+    private static Message readMessage(DataInputStream data, User[] users, String[] strings) throws IOException {
+        byte kind = data.readByte();
+        int sender = kind == SYSTEM_SENDER ? -1 : data.readInt();
+        String text = strings[data.readInt()];
+        return switch (kind) {
+            case USER_SENDER -> new UserMessage(users[sender], text);
+            case SYSTEM_SENDER -> new SystemMessage(text);
+            default -> new Message<>(strings[sender], text);
+        };
+    }
+}
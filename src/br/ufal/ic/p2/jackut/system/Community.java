@@ -1,11 +1,20 @@
 package br.ufal.ic.p2.jackut.system;
 
-import br.ufal.ic.p2.jackut.exceptions.CommunityException;
 import com.fasterxml.jackson.annotation.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * This class represents a community in the system.
  * It contains the community's name, description, owner and members.
+ * <p>
+ * Posts are appended once to the community's log, and each member keeps a cursor to the
+ * next post it hasn't read. Posts every member has read are dropped from the log.
  */
 
 @JsonIdentityInfo(
@@ -17,6 +26,28 @@ public class Community {
     private final String description;
     private final User owner;
     private final UserList members;
+    /**
+     * Posts not yet read by every member, oldest first.
+     */
+    private final ArrayList<Post> posts = new ArrayList<>();
+    /**
+     * Position of the first post in {@link #posts} among every post made to the community.
+     */
+    private long base;
+    /**
+     * Position of the next unread post of each member. Members without an entry have
+     * been members since the log was empty and start at 0.
+     */
+    private final Map<User, AtomicLong> cursors = new ConcurrentHashMap<>();
+    /**
+     * Log size that triggers dropping the posts every member has read.
+     */
+    private int trimAt = MIN_TRIM;
+    private static final int MIN_TRIM = 64;
+    /**
+     * Number of members each post is made available to.
+     */
+    private static final Metrics.Distribution FAN_OUT = Metrics.distribution("community.sendPost.fanout");
 
     /**
      * Creates a new community.
@@ -34,11 +65,32 @@ public class Community {
             @JsonProperty("owner") User owner,
             @JsonProperty("members") UserList members) {
 
+        this(name, description, owner, members, true);
+    }
+
+    private Community(String name, String description, User owner, UserList members, boolean addToOwner) {
         this.owner = owner;
         this.name = name;
         this.description = description;
         this.members = members;
-        owner.addCommunity(this);
+        if (addToOwner) {
+            owner.addCommunity(this);
+        }
+    }
+
+    /**
+     * Rebuilds a community read from a snapshot. Unlike the constructor, it doesn't add the
+     * community to the owner, whose list of communities is restored from the snapshot as well.
+     *
+     * @param name        the name of the community.
+     * @param description the description of the community.
+     * @param owner       the owner of the community.
+     * @param members     the members of the community.
+     * @return the community.
+     */
+
+    static Community restore(String name, String description, User owner, UserList members) {
+        return new Community(name, description, owner, members, false);
     }
 
     /**
@@ -97,10 +149,10 @@ public class Community {
      */
 
     public void addMember(User user) {
-        if (!this.members.contains(user)) {
-            this.members.add(user);
+        if (this.members.add(user)) {
+            cursors.put(user, new AtomicLong(base + posts.size()));
             user.addCommunity(this);
-        } else throw new CommunityException("Usuario j faz parte dessa comunidade.");
+        } else throw Failures.ALREADY_MEMBER;
     }
 
     /**
@@ -119,22 +171,151 @@ public class Community {
      */
 
     public void removeMember(User user) {
-        if (this.members.contains(user)) {
-            this.members.remove(user);
-        } else throw new CommunityException("Usuario no faz parte dessa comunidade.");
+        if (!this.members.remove(user)) {
+            throw Failures.NOT_A_MEMBER;
+        }
+        cursors.remove(user);
     }
 
+    /**
+     * Appends a post to the log. Members read it through {@link User#readPost()}.
+     * @param sender
+     * @param contents
+     */
+
     public void sendPost (User sender, String contents) {
-        UserMessage post = new UserMessage(sender, contents);
-        for (User user : this.members) {
-            user.receivePost(post);
+        sendPost(new UserMessage(sender, contents));
+    }
+
+    /**
+     * Appends a post to the log. The same message may be posted to several communities.
+     * @param post
+     */
+
+    public void sendPost(UserMessage post) {
+        FAN_OUT.record(members.size());
+        post.retain();
+        posts.add(Post.of(post));
+        if (posts.size() >= trimAt) {
+            trim();
         }
     }
 
+    /**
+     * Returns the next post the member hasn't read, without consuming it.
+     * @param member
+     * @return the post, or null if the member has read every post.
+     */
+
+    Post nextPost(User member) {
+        long index = cursor(member) - base;
+        return index < posts.size() ? posts.get((int) index) : null;
+    }
+
+    /**
+     * Moves the member's cursor past its next post.
+     * @param member
+     */
+
+    void consumePost(User member) {
+        cursors.computeIfAbsent(member, m -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Returns the posts the member hasn't read, oldest first.
+     * @param member
+     * @return
+     */
+
+    List<Post> unreadPosts(User member) {
+        int index = (int) Math.min(cursor(member) - base, posts.size());
+        return new ArrayList<>(posts.subList(index, posts.size()));
+    }
+
+    /**
+     * Returns the posts not yet read by every member, oldest first. Snapshots store these with
+     * the {@link #readCount(User)} of each member.
+     * @return
+     */
+
+    List<Post> getPosts() {
+        return Collections.unmodifiableList(posts);
+    }
+
+    /**
+     * Returns how many of the posts in {@link #getPosts()} the member has read.
+     * @param member
+     * @return the number of posts read.
+     */
+
+    int readCount(User member) {
+        return (int) Math.max(0, Math.min(cursor(member) - base, posts.size()));
+    }
+
+    /**
+     * Restores the log read from a snapshot, before any post is made to the community.
+     * @param posts the posts not yet read by every member, oldest first.
+     * @param read  how many of them each member has read; members left out have read none.
+     */
+
+    void restorePosts(List<Post> posts, Map<User, Integer> read) {
+        for (Post post : posts) {
+            post.message().retain();
+        }
+        this.posts.addAll(posts);
+        read.forEach((member, count) -> cursors.put(member, new AtomicLong(base + count)));
+    }
+
+    private long cursor(User member) {
+        AtomicLong cursor = cursors.get(member);
+        return cursor != null ? cursor.get() : 0;
+    }
+
+    /**
+     * Drops the posts every member has read. The next trim waits until the log has grown
+     * by the number of members, so the scan over the members stays cheap per post.
+     */
+
+    private void trim() {
+        long oldest = base + posts.size();
+        for (User member : members) {
+            oldest = Math.min(oldest, cursor(member));
+        }
+        List<Post> read = posts.subList(0, (int) (oldest - base));
+        for (Post post : read) {
+            post.message().release();
+        }
+        read.clear();
+        base = oldest;
+        trimAt = Math.max(Math.max(MIN_TRIM, members.size()), posts.size() * 2);
+    }
+
+    /**
+     * Removes the community from its members. Posts a member hasn't read yet
+     * stay on that member's timeline.
+     */
+
     public void deleteCommunity() {
         for (User user : this.members) {
+            List<Post> unread = unreadPosts(user);
+            if (!unread.isEmpty()) {
+                user.keepPosts(unread);
+            }
             user.removeCommunity(this);
         }
+        discardPosts();
+    }
+
+    /**
+     * Empties the log. Used when the community is removed from the system.
+     */
+
+    void discardPosts() {
+        for (Post post : posts) {
+            post.message().release();
+        }
+        base += posts.size();
+        posts.clear();
     }
 
 }
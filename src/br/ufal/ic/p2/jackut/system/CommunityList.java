@@ -0,0 +1,51 @@
+package br.ufal.ic.p2.jackut.system;
+
+import java.util.ArrayList;
+
+/**
+ * The communities of a user, in the order the user joined them.
+ * <p>
+ * {@link #printAll()} keeps the string it rendered along with the list's modification count,
+ * and renders it again only after the list changed. Since snapshot readers fill the list
+ * directly, the count kept by {@link ArrayList} itself is used rather than hooks on the methods
+ * that change it.
+ */
+
+final class CommunityList extends ArrayList<Community> implements PrintAll {
+
+    /**
+     * A rendered string and the modification count it was rendered at, replaced as a whole
+     * so concurrent readers never see one without the other.
+     */
+
+    private record Rendered(int version, String text) {
+    }
+
+    private transient Rendered rendered;
+
+    @Override
+    public String printAll() {
+        Rendered current = rendered;
+        if (current != null && current.version() == modCount) {
+            return current.text();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+
+        for (Community community : this) {
+            sb.append(community.getName());
+            sb.append(',');
+        }
+
+        if (sb.length() > 1) {
+            sb.deleteCharAt(sb.length() - 1); // Remove the trailing comma
+        }
+
+        sb.append('}');
+
+        String text = sb.toString();
+        rendered = new Rendered(modCount, text);
+        return text;
+    }
+}
@@ -2,8 +2,12 @@ package br.ufal.ic.p2.jackut.system;
 
 import br.ufal.ic.p2.jackut.exceptions.*;
 
+import br.ufal.ic.p2.jackut.system.WriteAheadLog.Operation;
+
 import java.io.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.fasterxml.jackson.core.exc.StreamReadException;
 import com.fasterxml.jackson.databind.*;
@@ -12,49 +16,249 @@ import com.fasterxml.jackson.databind.*;
  * This class represents a simple database system for managing user accounts and sessions.
  * It provides methods for creating, finding, and managing user accounts, as well as handling
  * user sessions and data persistence.
+ * <p>
+ * It is safe to use from several threads. Each call locks the users and communities it touches,
+ * for reading or for writing, so calls on unrelated users run in parallel; deleting an account
+ * and writing a snapshot lock everything.
+ * <p>
+ * If an operation can't be written to the log, it has already been applied in memory, so the
+ * database refuses every later call that takes a lock rather than serve state that a restart
+ * would lose. Restarting recovers the data from the snapshot and the log.
  */
 
+// The held locks of LockStripes are only there to be released when a try block ends.
+@SuppressWarnings("try")
 public class Database {
+    private static final Path LOG_FILE = Path.of("jackut.wal");
+    private static final Path SNAPSHOT_FILE = Path.of("jackut.snapshot");
+    private static final Path MAPPED_FILE = Path.of("jackut.mapped");
+    /**
+     * Size in bytes the operation log may reach before it is folded into a new snapshot.
+     */
+    private static final long COMPACT_THRESHOLD = Long.getLong("jackut.wal.compactBytes", 64L << 20);
+    /**
+     * Number of recipients the batch operations lock and deliver to at a time.
+     */
+    private static final int BATCH_SIZE = 64;
+    private static final Metrics.Operation FIND_USER = Metrics.operation("database.findUser");
+    private static final Metrics.Operation FIND_SESSION = Metrics.operation("database.findSession");
+    private static final Metrics.Operation USERS_TO_JSON = Metrics.operation("database.usersToJSON");
+    private static final Metrics.Operation COMMUNITIES_TO_JSON = Metrics.operation("database.communitiesToJSON");
+
     ObjectMapper objectMapper = new ObjectMapper();
-    private ArrayList<User> users;
-    private ArrayList<Session> sessions;
-    //    private ArrayList<Comunity> comunities;
-    private ArrayList<Community> communities = new ArrayList<>();
+    /**
+     * Registered users indexed by login, so lookups and duplicate checks don't scan every account.
+     */
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    private final SessionTable sessions = new SessionTable();
+    /**
+     * Locks guarding users and communities, so calls touching different users run in parallel.
+     */
+    private final LockStripes locks = new LockStripes(Integer.getInteger("jackut.lockStripes", 256));
 
     /**
-     * Constructs a Database object with initial user data imported from a file if file exists.
+     * Dense IDs of the users, used by relationship lists instead of references.
      */
+    private UserIds userIds = new UserIds();
+    /**
+     * Communities indexed by name.
+     */
+    private final Map<String, Community> communities = new ConcurrentHashMap<>();
+    /**
+     * Communities indexed by the login of their owner.
+     */
+    private final Map<String, List<Community>> communitiesByOwner = new ConcurrentHashMap<>();
+    /**
+     * Log of the operations applied since the last snapshot, or null if logging is disabled
+     * through the {@code jackut.wal} system property.
+     */
+    private WriteAheadLog log;
+    /**
+     * Position of the log the loaded snapshot already contains; records up to it aren't replayed.
+     */
+    private WriteAheadLog.Position snapshotLog = WriteAheadLog.Position.NONE;
+    /**
+     * Snapshot format selected through the {@code jackut.snapshot} system property:
+     * {@code json} (the default), {@code binary} or {@code mapped}.
+     */
+    private final String snapshotFormat = System.getProperty("jackut.snapshot", "json").toLowerCase();
+    /**
+     * The mapped snapshot users and communities are read from on first access, or null when
+     * everything is in memory.
+     */
+    private MappedSnapshot mapped;
+    /**
+     * Logins and community names deleted since the mapped snapshot was opened, which must not be
+     * read from it again.
+     */
+    private final Set<String> removedUsers = ConcurrentHashMap.newKeySet();
+    private final Set<String> removedCommunities = ConcurrentHashMap.newKeySet();
 
-    public Database() {
-        this.users = new ArrayList<>();
-        this.sessions = new ArrayList<>();
+    /**
+     * Constructs a Database object with initial user data imported from a file if file exists,
+     * then replays the operations logged after that snapshot was taken.
+     */
 
-        if (new File("users.json").exists()) {
+    public Database() {
+        MessageQueue.clearSpillFiles();
+        Metrics.gauge("database.users", this, database -> database.users.size());
+        Metrics.gauge("database.sessions", this, database -> database.sessions.size());
+        Metrics.gauge("database.communities", this, database -> database.communities.size());
+        Metrics.gauge("message.payloads", MessageStore.SHARED, MessageStore::size);
+
+        if (snapshotFormat.equals("mapped") && Files.exists(MAPPED_FILE)) {
+            openMappedSnapshot();
+        } else if (snapshotFormat.equals("binary") && Files.exists(SNAPSHOT_FILE)) {
+            snapshotFromBinary();
+        } else if (new File("users.json").exists()) {
             usersFromJSON();
         }
 
-        if (new File("communities.json").exists()) {
-            communitiesFromJSON();
+        if (Boolean.parseBoolean(System.getProperty("jackut.wal", "true"))) {
+            WriteAheadLog.replay(LOG_FILE, snapshotLog, this::apply);
+            this.log = new WriteAheadLog(LOG_FILE, Boolean.parseBoolean(System.getProperty("jackut.wal.fsync", "true")), snapshotLog);
+        }
+    }
+
+    /**
+     * Applies a logged operation again. The log stores logins rather than session IDs,
+     * since sessions don't survive a restart.
+     *
+     * @param entry The logged operation.
+     */
+
+    private void apply(WriteAheadLog.Entry entry) {
+        String[] args = entry.arguments();
+        try {
+            switch (entry.operation()) {
+                case NEW_USER -> newUser(args[0], args[1], args[2]);
+                case EDIT_PROFILE -> findUser(args[0]).editAttribute(args[1], args[2]);
+                case ADD_FRIEND -> findUser(args[0]).addFriend(findUser(args[1]));
+                case SEND_MESSAGE -> findUser(args[1]).addMessage(new UserMessage(findUser(args[0]), args[2]));
+                case READ_MESSAGE -> findUser(args[0]).readMessage();
+                case CREATE_COMMUNITY -> createCommunity(findUser(args[0]), args[1], args[2]);
+                case ADD_TO_COMMUNITY -> getCommunity(args[1]).addMember(findUser(args[0]));
+                case SEND_COMMUNITY_MESSAGE -> getCommunity(args[1]).sendPost(findUser(args[0]), args[2]);
+                case READ_POST -> findUser(args[0]).readPost();
+                case ADD_IDOL -> findUser(args[0]).addIdol(findUser(args[1]));
+                case ADD_FLIRT -> findUser(args[0]).addFlirt(findUser(args[1]));
+                case ADD_ENEMY -> findUser(args[0]).addEnemy(findUser(args[1]));
+                case DELETE_ACCOUNT -> deleteAccount(findUser(args[0]));
+            }
+        } catch (UserException | RelationshipException | CommunityException | MessageException | AttributeException ignored) {
+            // only successful operations are logged, so one can only fail again when the JSON
+            // snapshot was interrupted between its two files and part of it is newer than the other
+        }
+    }
+
+    /**
+     * Returns the position of the log a snapshot written now covers. Called while every lock is
+     * held, or before other threads use the database, so no operation is half logged.
+     */
+
+    private WriteAheadLog.Position logPosition() {
+        return log != null ? log.position() : WriteAheadLog.Position.NONE;
+    }
+
+    /**
+     * Appends an operation to the log once it has been applied.
+     *
+     * @param operation The operation.
+     * @param arguments The arguments of the operation.
+     */
+
+    private void record(Operation operation, String... arguments) {
+        if (log != null) {
+            try {
+                log.append(operation, arguments);
+            } catch (StorageException e) {
+                locks.fail(e.getMessage());
+                throw e;
+            }
         }
     }
 
     /**
-     * Imports user data from a file.
+     * Compacts the log once it grows too large. Called by operations after they release
+     * their locks, since writing a snapshot takes all of them.
+     */
+
+    private void compactIfDue() {
+        if (log == null || log.size() < COMPACT_THRESHOLD) {
+            return;
+        }
+        try (LockStripes.Held ignored = locks.exclusive()) {
+            if (log.size() >= COMPACT_THRESHOLD) {
+                writeCheckpoint();
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of all data and discards the log it supersedes.
+     */
+
+    public void checkpoint() {
+        try (LockStripes.Held ignored = locks.exclusive()) {
+            writeCheckpoint();
+        }
+    }
+
+    private void writeCheckpoint() {
+        switch (snapshotFormat) {
+            case "mapped" -> snapshotToMapped();
+            case "binary" -> snapshotToBinary();
+            default -> {
+                usersToJSON();
+                communitiesToJSON();
+            }
+        }
+        if (log != null) {
+            log.reset();
+        }
+    }
+
+    /**
+     * Imports user data from a file, along with the communities they refer to.
+     * Files are streamed one record at a time; files in the old object-graph format
+     * are still read whole through the data binding API.
      */
 
     public void usersFromJSON() {
         File json = new File("users.json");
-        if (json.exists()) {
-            try {
-                this.users = objectMapper.readValue(json, objectMapper.getTypeFactory().constructCollectionType(List.class, User.class));
-            } catch (StreamReadException e) {
-                throw new RuntimeException(e);
-            } catch (DatabindException e) {
-                throw new RuntimeException(e);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        if (!json.exists()) {
+            return;
+        }
+
+        JsonSnapshot snapshot = new JsonSnapshot(this, objectMapper.getFactory());
+        this.users.clear();
+        this.userIds = new UserIds();
+
+        if (!snapshot.isLegacy(json)) {
+            snapshotLog = WriteAheadLog.Position.NONE;
+            snapshot.readUsers(json, this::communitiesFromJSON);
+            snapshotLog = snapshot.logPosition().min(snapshotLog);
+            return;
+        }
+
+        try {
+            List<User> imported = objectMapper.readValue(json, objectMapper.getTypeFactory().constructCollectionType(List.class, User.class));
+            for (User user : imported) {
+                this.users.put(user.getLogin(), user);
+                userIds.register(user);
+            }
+            for (User user : imported) {
+                user.restoreIncomingEdges();
             }
+        } catch (StreamReadException e) {
+            throw new RuntimeException(e);
+        } catch (DatabindException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
+
+        communitiesFromJSON();
     }
 
     /**
@@ -63,36 +267,177 @@ public class Database {
 
     public void communitiesFromJSON() {
         File json = new File("communities.json");
-        if (json.exists()) {
-            try {
-                this.communities = objectMapper.readValue(json, objectMapper.getTypeFactory().constructCollectionType(ArrayList.class, Community.class));
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        if (!json.exists()) {
+            return;
+        }
+
+        JsonSnapshot snapshot = new JsonSnapshot(this, objectMapper.getFactory());
+        this.communities.clear();
+        this.communitiesByOwner.clear();
+
+        if (!snapshot.isLegacy(json)) {
+            snapshot.readCommunities(json);
+            snapshotLog = snapshot.logPosition();
+            return;
+        }
+
+        try {
+            List<Community> imported = objectMapper.readValue(json, objectMapper.getTypeFactory().constructCollectionType(ArrayList.class, Community.class));
+            for (Community community : imported) {
+                indexCommunity(community);
             }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Imports users and communities from a binary snapshot.
+     */
+
+    public void snapshotFromBinary() {
+        this.users.clear();
+        this.userIds = new UserIds();
+        this.communities.clear();
+        this.communitiesByOwner.clear();
+        snapshotLog = BinarySnapshot.read(this, SNAPSHOT_FILE);
+    }
 
     /**
-     * Shuts down the database, exporting all data to files.
+     * Exports users and communities to a binary snapshot.
      */
 
-    public void shutdown() {
-        usersToJSON();
-        communitiesToJSON();
+    public void snapshotToBinary() {
+        loadMappedSnapshot();
+        try {
+            writeAtomically(SNAPSHOT_FILE, out -> BinarySnapshot.write(users.values(), communities.values(), logPosition(), out));
+        } catch (IOException e) {
+            throw new StorageException("Erro ao escrever o snapshot.");
+        }
     }
 
     /**
-     * Exports all user data to a file.
+     * Opens the mapped snapshot. Users and communities are read from it as they are looked up.
      */
 
-    public void usersToJSON() {
+    public void openMappedSnapshot() {
+        this.users.clear();
+        this.userIds = new UserIds();
+        this.communities.clear();
+        this.communitiesByOwner.clear();
+        this.removedUsers.clear();
+        this.removedCommunities.clear();
+        this.mapped = MappedSnapshot.open(MAPPED_FILE);
+        this.snapshotLog = mapped.logPosition();
+    }
+
+    /**
+     * Exports users and communities to a mapped snapshot. Whatever is still only in the
+     * current mapped snapshot is loaded first, and the database no longer depends on it afterwards.
+     */
+
+    public void snapshotToMapped() {
+        loadMappedSnapshot();
         try {
-            objectMapper.writeValue(new File("users.json"), users);
+            writeAtomically(MAPPED_FILE, out -> MappedSnapshot.write(users.values(), communities.values(), logPosition(), out));
         } catch (IOException e) {
+            throw new StorageException("Erro ao escrever o snapshot.");
+        }
+    }
+
+    /**
+     * Reads every remaining user and community from the mapped snapshot and closes it.
+     */
+
+    private void loadMappedSnapshot() {
+        if (mapped == null) {
+            return;
+        }
+        for (int id = 0; id < mapped.userCount(); id++) {
+            User user = snapshotUser(id);
+            if (user != null) {
+                user.load();
+            }
+        }
+        for (int id = 0; id < mapped.communityCount(); id++) {
+            snapshotCommunity(id);
+        }
+        this.mapped = null;
+        this.removedUsers.clear();
+        this.removedCommunities.clear();
+    }
+
+    /**
+     * Returns the user stored in a record of the mapped snapshot, reading it if it wasn't yet.
+     *
+     * @param id The record number.
+     * @return The user, or null if it was deleted since the snapshot was opened.
+     */
+
+    User snapshotUser(int id) {
+        String login = mapped.login(id);
+        if (removedUsers.contains(login)) {
+            return null;
+        }
+        return this.users.computeIfAbsent(login, key -> {
+            User user = mapped.readUser(id, this);
+            userIds.register(user);
+            return user;
+        });
+    }
 
-            throw new JsonException("Erro ao escrever arquivo de usuários.");
+    /**
+     * Returns the community stored in a record of the mapped snapshot, reading it if it wasn't yet.
+     *
+     * @param id The record number.
+     * @return The community, or null if it was deleted since the snapshot was opened.
+     */
+
+    Community snapshotCommunity(int id) {
+        String name = mapped.communityName(id);
+        if (removedCommunities.contains(name)) {
+            return null;
         }
+        Community community = communities.get(name);
+        if (community == null) {
+            community = mapped.readCommunity(id, this);
+            if (!indexCommunity(community)) {
+                community = communities.get(name);
+            }
+        }
+        return community;
+    }
+
+    /**
+     * Shuts down the database, exporting all data to files and closing the log. A database
+     * used again afterwards opens the log again.
+     */
+
+    public void shutdown() {
+        try {
+            checkpoint();
+        } finally {
+            if (log != null) {
+                log.close();
+            }
+        }
+    }
+
+    /**
+     * Exports all user data to a file.
+     */
+
+    public void usersToJSON() {
+        Metrics.run(USERS_TO_JSON, () -> {
+            loadMappedSnapshot();
+            try {
+                JsonSnapshot snapshot = new JsonSnapshot(this, objectMapper.getFactory());
+                writeAtomically(Path.of("users.json"), out -> snapshot.writeUsers(users.values(), logPosition(), out));
+            } catch (IOException e) {
+
+                throw new JsonException("Erro ao escrever arquivo de usuários.");
+            }
+        });
     }
 
     /**
@@ -100,10 +445,39 @@ public class Database {
      */
 
     public void communitiesToJSON() {
+        Metrics.run(COMMUNITIES_TO_JSON, () -> {
+            loadMappedSnapshot();
+            try {
+                JsonSnapshot snapshot = new JsonSnapshot(this, objectMapper.getFactory());
+                writeAtomically(Path.of("communities.json"), out -> snapshot.writeCommunities(communities.values(), logPosition(), out));
+            } catch (IOException e) {
+                throw new JsonException("Erro ao escrever arquivo de comunidades.");
+            }
+        });
+    }
+
+    /**
+     * Writes the contents of a snapshot file.
+     */
+
+    private interface SnapshotWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Writes a file to a temporary location and moves it over the target,
+     * so a crash halfway through never leaves a truncated snapshot behind.
+     */
+
+    private void writeAtomically(Path target, SnapshotWriter writer) throws IOException {
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+            writer.write(out);
+        }
         try {
-            objectMapper.writeValue(new File("communities.json"), communities);
-        } catch (IOException e) {
-            throw new JsonException("Erro ao escrever arquivo de comunidades.");
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
         }
     }
 
@@ -112,9 +486,29 @@ public class Database {
      */
 
     public void flush() {
-        this.users = new ArrayList<>();
-        this.communities = new ArrayList<>();
-        this.sessions = new ArrayList<>();
+        try (LockStripes.Held ignored = locks.exclusive()) {
+            clear();
+        }
+    }
+
+    private void clear() {
+        for (User user : this.users.values()) {
+            user.discardMessages();
+        }
+        for (Community community : this.communities.values()) {
+            community.discardPosts();
+        }
+        this.users.clear();
+        this.userIds = new UserIds();
+        this.communities.clear();
+        this.communitiesByOwner.clear();
+        this.sessions.clear();
+        this.mapped = null;
+        this.removedUsers.clear();
+        this.removedCommunities.clear();
+        if (log != null) {
+            log.reset();
+        }
         if (new File("users.json").exists()) {
             System.out.println("users.json exists");
             new File("users.json").delete();
@@ -123,6 +517,8 @@ public class Database {
             System.out.println("communities.json exists");
             new File("communities.json").delete();
         }
+        SNAPSHOT_FILE.toFile().delete();
+        MAPPED_FILE.toFile().delete();
         System.out.println("Flushed data.");
     }
 
@@ -137,21 +533,24 @@ public class Database {
 
     public void newUser(String login, String password, String name) {
         if (login == null) {
-            throw new UserException("Login inválido.");
+            throw Failures.INVALID_LOGIN;
         }
 
         if (password == null) {
-            throw new UserException("Senha inválida.");
+            throw Failures.INVALID_PASSWORD;
         }
 
-        for (User user : this.users) {
-            if (user.getLogin().equals(login)) {
-                throw new UserException("Conta com esse nome já existe.");
+        User user = new User(login, password, name, null, null, null, null, null, null, null, null, null);
+
+        try (LockStripes.Held ignored = locks.write(login)) {
+            if (inMappedSnapshot(login) || this.users.putIfAbsent(login, user) != null) {
+                throw Failures.DUPLICATE_USER;
             }
-        }
+            userIds.register(user);
 
-        User user = new User(login, password, name, null, null, null, null, null, null, null, null, null);
-        this.users.add(user);
+            record(Operation.NEW_USER, login, password, name);
+        }
+        compactIfDue();
     }
 
     /**
@@ -160,23 +559,29 @@ public class Database {
      * @param login    The login of the user to start a session for.
      * @param password The password of the user.
      * @return The ID of the new session.
-     * @throws RuntimeException if the login or password is invalid.
+     * @throws RuntimeException if the login or password is invalid or if too many sessions are open.
      */
 
     public String startSession(String login, String password) {
+        return tryStartSession(login, password).orThrow();
+    }
 
-        try {
-            User user = findUser(login); // find user by login
-            if (user.matchPassword(password)) { // if user password is equal to password
-                String id = String.valueOf(this.sessions.size()); // id is equal to activeSessions
-                sessions.add(new Session(user, id)); // add new session to sessions
-                return id;
-            } else {
-                throw new UserException("Login ou senha inválidos."); // if user password is not equal to password
-            }
-        } catch (RuntimeException error) {
-            throw new UserException("Login ou senha inválidos."); // if user not found
+    /**
+     * Starts a new session, like {@link #startSession}, returning a wrong login or password
+     * as a failed result.
+     *
+     * @param login    The login of the user to start a session for.
+     * @param password The password of the user.
+     * @return The ID of the new session, or the failure.
+     * @throws RuntimeException if too many sessions are open.
+     */
+
+    public Result<String> tryStartSession(String login, String password) {
+        if (!(lookUpUser(login) instanceof Result.Ok<User> found) || !found.value().matchPassword(password)) {
+            return Result.failed(Failures.INVALID_CREDENTIALS);
         }
+
+        return Result.of(sessions.open(found.value())); // random token identifying the new session
     }
 
     /**
@@ -188,12 +593,49 @@ public class Database {
      */
 
     public User findUser(String login) {
-        for (User user : this.users) { // for each user in users
-            if (user.getLogin().equals(login)) { // if user login is equal to login
-                return user;
+        return lookUpUser(login).orThrow();
+    }
+
+    private Result<User> lookUpUser(String login) {
+        return Metrics.result(FIND_USER, () -> {
+            User user = login != null ? this.users.get(login) : null;
+            if (user == null && inMappedSnapshot(login)) {
+                user = snapshotUser(mapped.findUser(login));
             }
-        }
-        throw new UserException("Usuário não cadastrado."); // if user not found
+            return user != null ? Result.of(user) : Result.failed(Failures.USER_NOT_FOUND);
+        });
+    }
+
+    /**
+     * Checks if a user is registered.
+     *
+     * @param login The login of the user.
+     * @return True if a user with the given login exists.
+     */
+
+    public boolean hasUser(String login) {
+        return login != null && (this.users.containsKey(login) || inMappedSnapshot(login));
+    }
+
+    /**
+     * Checks if a user that wasn't read yet exists in the mapped snapshot.
+     */
+
+    private boolean inMappedSnapshot(String login) {
+        MappedSnapshot snapshot = mapped;
+        return snapshot != null && login != null && !this.users.containsKey(login)
+                && !removedUsers.contains(login) && snapshot.findUser(login) >= 0;
+    }
+
+    /**
+     * Adds a user loaded from a snapshot to the login index.
+     *
+     * @param user The user to be registered.
+     */
+
+    void registerUser(User user) {
+        this.users.put(user.getLogin(), user);
+        userIds.register(user);
     }
 
     /**
@@ -205,8 +647,25 @@ public class Database {
      */
 
     public String getUserAttribute(String login, String attribute) {
-        User user = findUser(login); // find user by login
-        return user.getAttribueValue(attribute);
+        return tryGetUserAttribute(login, attribute).orThrow();
+    }
+
+    /**
+     * Retrieves a specific attribute of a user, like {@link #getUserAttribute}, returning an
+     * unknown user or an attribute that isn't filled in as a failed result.
+     *
+     * @param login     The login of the user.
+     * @param attribute The attribute to retrieve ("nome" for the user's name).
+     * @return The value of the requested attribute, or the failure.
+     */
+
+    public Result<String> tryGetUserAttribute(String login, String attribute) {
+        try (LockStripes.Held ignored = locks.read(login)) {
+            if (!(lookUpUser(login) instanceof Result.Ok<User> found)) {
+                return Result.failed(Failures.USER_NOT_FOUND);
+            }
+            return found.value().attributeValue(attribute);
+        }
     }
 
     /**
@@ -219,7 +678,12 @@ public class Database {
      */
 
     public void editProfile(String sessionId, String attribute, String value) {
-        getUserBySessionId(sessionId).editAttribute(attribute, value);
+        User user = getUserBySessionId(sessionId);
+        try (LockStripes.Held ignored = lockSession(user)) {
+            user.editAttribute(attribute, value);
+            record(Operation.EDIT_PROFILE, user.getLogin(), attribute, value);
+        }
+        compactIfDue();
     }
 
     /**
@@ -231,14 +695,51 @@ public class Database {
      */
 
     public User getUserBySessionId(String sessionId) {
-        Session session = findSession(sessionId);
-        User user = session.user();
+        return sessionUser(sessionId).orThrow();
+    }
+
+    private Result<User> sessionUser(String sessionId) {
+        if (!(lookUpSession(sessionId) instanceof Result.Ok<Session> found) || found.value().user() == null) {
+            return Result.failed(Failures.USER_NOT_FOUND);
+        }
+        return Result.of(found.value().user());
+    }
 
-        if (user == null) {
-            throw new UserException("Usuário não cadastrado.");
+    /**
+     * Locks the stripes of a session's user and of the other given keys for writing, then checks
+     * the user wasn't deleted while the locks were awaited.
+     *
+     * @param user   The user of the session.
+     * @param others Logins or community names also touched by the operation.
+     * @return The held locks.
+     * @throws UserException if the user no longer exists.
+     */
+
+    private LockStripes.Held lockSession(User user, String... others) {
+        String[] keys = Arrays.copyOf(others, others.length + 1);
+        keys[others.length] = user.getLogin();
+
+        LockStripes.Held held = locks.write(keys);
+        try {
+            checkRegistered(user);
+        } catch (UserException e) {
+            held.close();
+            throw e;
         }
+        return held;
+    }
 
-        return user;
+    /**
+     * Checks a user found before its locks were taken wasn't deleted in the meantime.
+     *
+     * @param user The user.
+     * @throws UserException if the user no longer exists.
+     */
+
+    private void checkRegistered(User user) {
+        if (this.users.get(user.getLogin()) != user) {
+            throw Failures.USER_NOT_FOUND;
+        }
     }
 
     /**
@@ -250,13 +751,15 @@ public class Database {
      */
 
     public Session findSession(String sessionId) {
-        for (Session session : this.sessions) { // for each session in sessions
-            if (Objects.equals(session.sessionId(), sessionId)) { // if session id is equal to sessionId
-                return session;
-            }
-        }
+        return lookUpSession(sessionId).orThrow();
+    }
 
-        throw new UserException("Usuário não cadastrado."); // if session not found
+    private Result<Session> lookUpSession(String sessionId) {
+        return Metrics.result(FIND_SESSION, () -> {
+            Session session = sessions.find(sessionId);
+            // if session not found or expired
+            return session != null ? Result.of(session) : Result.failed(Failures.USER_NOT_FOUND);
+        });
     }
 
     /**
@@ -267,25 +770,47 @@ public class Database {
      */
 
     public void deleteAccount(String sessionId) {
-        User user = getUserBySessionId(sessionId);
-        sessions.remove(findSession(sessionId));
-        this.users.remove(user);
+        try (LockStripes.Held ignored = locks.exclusive()) {
+            User user = getUserBySessionId(sessionId);
+            sessions.closeAll(user);
+            deleteAccount(user);
+            record(Operation.DELETE_ACCOUNT, user.getLogin());
+        }
+        compactIfDue();
+    }
+
+    /**
+     * Removes a user and everything that refers to it. The caller holds every lock.
+     *
+     * @param user The user to be removed.
+     */
 
-        for(User u : this.users) {
-            u.removeMessagesFromSender(user);
-            u.removeEnemy(user);
-            u.removeFlirt(user);
-            u.removeIdol(user);
-            u.removeFriend(user);
+    private void deleteAccount(User user) {
+        user.removeAllRelationships();
+        user.discardMessages();
+
+        this.users.remove(user.getLogin());
+        if (mapped != null) {
+            removedUsers.add(user.getLogin());
         }
 
-        for(Community c : this.communities) {
-            if(c.getOwner().equals(user)) {
+        List<Community> owned = communitiesByOwner.remove(user.getLogin());
+        if (owned != null) {
+            for (Community c : owned) {
                 c.deleteCommunity();
-                this.communities.remove(c);
+                this.communities.remove(c.getName());
+                if (mapped != null) {
+                    removedCommunities.add(c.getName());
+                }
             }
-            c.removeMember(user);
         }
+
+        for (Community c : new ArrayList<>(user.getCommunities())) {
+            if (c.hasMember(user)) {
+                c.removeMember(user);
+            }
+        }
+        userIds.release(user);
     }
 
     /**
@@ -297,9 +822,36 @@ public class Database {
      */
 
     public void addFriend(String sessionId, String friendLogin) {
-        User user = getUserBySessionId(sessionId);
-        User friend = findUser(friendLogin);
-        user.addFriend(friend);
+        tryAddFriend(sessionId, friendLogin).orThrow();
+    }
+
+    /**
+     * Adds a friend to a user's friend list, like {@link #addFriend}, returning an unknown user
+     * or a friendship that can't be requested as a failed result.
+     *
+     * @param sessionId   The ID of the session.
+     * @param friendLogin The login of the friend to add.
+     * @return {@link Result#DONE}, or the failure.
+     */
+
+    public Result<Void> tryAddFriend(String sessionId, String friendLogin) {
+        if (!(sessionUser(sessionId) instanceof Result.Ok<User> session)) {
+            return Result.failed(Failures.USER_NOT_FOUND);
+        }
+
+        User user = session.value();
+        Result<Void> result;
+        try (LockStripes.Held ignored = lockSession(user, friendLogin)) {
+            if (!(lookUpUser(friendLogin) instanceof Result.Ok<User> friend)) {
+                return Result.failed(Failures.USER_NOT_FOUND);
+            }
+            result = user.requestFriend(friend.value());
+            if (result == Result.DONE) {
+                record(Operation.ADD_FRIEND, user.getLogin(), friend.value().getLogin());
+            }
+        }
+        compactIfDue();
+        return result;
     }
 
     /**
@@ -312,9 +864,11 @@ public class Database {
      */
 
     public boolean areFriends(String userLogin, String friendLogin) {
-        User user = findUser(userLogin);
-        User friend = findUser(friendLogin);
-        return user.isFriendOf(friend);
+        try (LockStripes.Held ignored = locks.read(userLogin, friendLogin)) {
+            User user = findUser(userLogin);
+            User friend = findUser(friendLogin);
+            return user.isFriendOf(friend);
+        }
     }
 
     /**
@@ -326,8 +880,85 @@ public class Database {
      */
 
     public String getFriends(String login) {
-        User user = findUser(login);
-        return user.printFriends();
+        try (LockStripes.Held ignored = locks.read(login)) {
+            User user = findUser(login);
+            return user.printFriends();
+        }
+    }
+
+    /**
+     * Retrieves the friends two users have in common.
+     *
+     * @param login      The login of the first user.
+     * @param otherLogin The login of the second user.
+     * @return A string containing the mutual friends, in the order the first user added them.
+     * @throws RuntimeException if either user login is invalid.
+     */
+
+    public String getMutualFriends(String login, String otherLogin) {
+        try (LockStripes.Held ignored = locks.read(login, otherLogin)) {
+            User user = findUser(login);
+            User other = findUser(otherLogin);
+            return printUsers(FriendGraph.mutualFriends(user, other));
+        }
+    }
+
+    /**
+     * Suggests friends of a user's friends, ranked by the number of friends they share with the user.
+     *
+     * @param login The login of the user.
+     * @return A string containing up to {@value FriendGraph#SUGGESTIONS} suggested users.
+     * @throws RuntimeException if the user login is invalid.
+     */
+
+    public String getFriendSuggestions(String login) {
+        // the friend lists of the user's friends are locked for reading;
+        // if the user's friends change before the locks are taken, they are read again
+        while (true) {
+            User user;
+            List<String> friends;
+            try (LockStripes.Held ignored = locks.read(login)) {
+                user = findUser(login);
+                friends = friendLogins(user);
+            }
+
+            List<String> keys = new ArrayList<>(friends);
+            keys.add(login);
+            try (LockStripes.Held ignored = locks.lock(keys, List.of())) {
+                checkRegistered(user);
+                if (friendLogins(user).equals(friends)) {
+                    return printUsers(FriendGraph.suggestions(user, FriendGraph.SUGGESTIONS));
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts a user's friends.
+     *
+     * @param login The login of the user.
+     * @return The number of friendships accepted on both sides.
+     * @throws RuntimeException if the user login is invalid.
+     */
+
+    public int countFriends(String login) {
+        try (LockStripes.Held ignored = locks.read(login)) {
+            return FriendGraph.degree(findUser(login));
+        }
+    }
+
+    private static List<String> friendLogins(User user) {
+        List<String> logins = new ArrayList<>();
+        for (int id : user.friendIds()) {
+            logins.add(user.getIds().get(id).getLogin());
+        }
+        return logins;
+    }
+
+    private static String printUsers(List<User> users) {
+        UserList list = new UserList();
+        list.addAll(users);
+        return list.printAll();
     }
 
     /**
@@ -342,12 +973,58 @@ public class Database {
 
     public void sendMessage(String sessionId, String recipient, String message) {
         User sender = getUserBySessionId(sessionId);
-        User recipientUser = findUser(recipient);
-        UserMessage userMessage = new UserMessage(sender, message);
-        recipientUser.addMessage(userMessage);
+        try (LockStripes.Held ignored = lockSession(sender, recipient)) {
+            User recipientUser = findUser(recipient);
+            UserMessage userMessage = new UserMessage(sender, message);
+            recipientUser.addMessage(userMessage);
+            record(Operation.SEND_MESSAGE, sender.getLogin(), recipientUser.getLogin(), message);
+        }
+        compactIfDue();
     }
 
 
+    /**
+     * Sends the same message from one user to several others. The sender is looked up once,
+     * every recipient gets the same message, and recipients are locked in groups rather than one
+     * by one. A recipient that can't receive the message, because it doesn't exist or is an enemy,
+     * doesn't stop delivery to the others.
+     *
+     * @param sessionId  The ID of the session.
+     * @param recipients The logins of the recipients.
+     * @param message    The message to send.
+     * @return The error message for each recipient that didn't get the message, in the order given.
+     * @throws RuntimeException if the session ID is invalid.
+     */
+
+    public Map<String, String> sendMessages(String sessionId, Collection<String> recipients, String message) {
+        User sender = getUserBySessionId(sessionId);
+        UserMessage userMessage = new UserMessage(sender, message);
+        Map<String, String> failures = new LinkedHashMap<>();
+
+        List<String> pending = new ArrayList<>(recipients);
+        for (int from = 0; from < pending.size(); from += BATCH_SIZE) {
+            List<String> batch = pending.subList(from, Math.min(pending.size(), from + BATCH_SIZE));
+            try (LockStripes.Held ignored = lockSession(sender, batch.toArray(new String[0]))) {
+                for (String recipient : batch) {
+                    try {
+                        findUser(recipient).addMessage(userMessage);
+                        record(Operation.SEND_MESSAGE, sender.getLogin(), recipient, message);
+                    } catch (RuntimeException e) {
+                        failures.put(recipient, e.getMessage());
+                    }
+                }
+            } catch (UserException e) {
+                // the sender was deleted
+                for (String recipient : batch) {
+                    failures.put(recipient, e.getMessage());
+                }
+            }
+        }
+
+        compactIfDue();
+        return failures;
+    }
+
     /**
      * Reads a message from a user's inbox.
      *
@@ -357,11 +1034,54 @@ public class Database {
      */
 
     public String readMessage(String sessionId) {
-        User user = getUserBySessionId(sessionId);
-        if (user != null) {
-            return user.readMessage();
+        return tryReadMessage(sessionId).orThrow();
+    }
+
+    /**
+     * Reads a message from a user's inbox, like {@link #readMessage}, returning an unknown
+     * session or an empty inbox as a failed result.
+     *
+     * @param sessionId The ID of the session.
+     * @return The message, or the failure.
+     */
+
+    public Result<String> tryReadMessage(String sessionId) {
+        if (!(sessionUser(sessionId) instanceof Result.Ok<User> session)) {
+            return Result.failed(Failures.USER_NOT_FOUND);
+        }
+
+        User user = session.value();
+        Result<String> message = null;
+        // reading the last message from a sender also changes the sender's recipients, so the
+        // sender is locked as well; if the first message changes before then, it is looked at again
+        while (message == null) {
+            User sender;
+            try (LockStripes.Held ignored = lockSession(user)) {
+                sender = user.lastMessageSenderAtHead();
+                if (sender == null) {
+                    message = takeMessage(user);
+                }
+            }
+            if (sender != null) {
+                try (LockStripes.Held ignored = lockSession(user, sender.getLogin())) {
+                    if (user.lastMessageSenderAtHead() == sender) {
+                        message = takeMessage(user);
+                    }
+                }
+            }
+        }
+        if (message instanceof Result.Ok<String>) {
+            compactIfDue();
+        }
+        return message;
+    }
+
+    private Result<String> takeMessage(User user) {
+        Result<String> message = user.takeMessage();
+        if (message instanceof Result.Ok<String>) {
+            record(Operation.READ_MESSAGE, user.getLogin());
         }
-        return null;
+        return message;
     }
 
     /**
@@ -375,8 +1095,52 @@ public class Database {
 
     public void sendCommunityMessage(String sessionId, String communityName, String contents) {
         User sender = getUserBySessionId(sessionId);
-        Community community = getCommunity(communityName);
-        community.sendPost(sender, contents);
+        try (LockStripes.Held ignored = lockSession(sender, communityName)) {
+            Community community = getCommunity(communityName);
+            community.sendPost(sender, contents);
+            record(Operation.SEND_COMMUNITY_MESSAGE, sender.getLogin(), community.getName(), contents);
+        }
+        compactIfDue();
+    }
+
+    /**
+     * Posts the same message to several communities. The sender is looked up once and every
+     * community gets the same message; a community that doesn't exist doesn't stop the others.
+     *
+     * @param sessionId      The ID of the session.
+     * @param communityNames The names of the communities.
+     * @param contents       The contents of the message.
+     * @return The error message for each community that didn't get the message, in the order given.
+     * @throws RuntimeException if the session ID is invalid.
+     */
+
+    public Map<String, String> sendCommunityMessages(String sessionId, Collection<String> communityNames, String contents) {
+        User sender = getUserBySessionId(sessionId);
+        UserMessage post = new UserMessage(sender, contents);
+        Map<String, String> failures = new LinkedHashMap<>();
+
+        List<String> pending = new ArrayList<>(communityNames);
+        for (int from = 0; from < pending.size(); from += BATCH_SIZE) {
+            List<String> batch = pending.subList(from, Math.min(pending.size(), from + BATCH_SIZE));
+            try (LockStripes.Held ignored = lockSession(sender, batch.toArray(new String[0]))) {
+                for (String communityName : batch) {
+                    try {
+                        getCommunity(communityName).sendPost(post);
+                        record(Operation.SEND_COMMUNITY_MESSAGE, sender.getLogin(), communityName, contents);
+                    } catch (RuntimeException e) {
+                        failures.put(communityName, e.getMessage());
+                    }
+                }
+            } catch (UserException e) {
+                // the sender was deleted
+                for (String communityName : batch) {
+                    failures.put(communityName, e.getMessage());
+                }
+            }
+        }
+
+        compactIfDue();
+        return failures;
     }
 
     /**
@@ -388,21 +1152,54 @@ public class Database {
      */
 
     public Community getCommunity(String name) {
-        for (Community community : communities) {
-            if (community.getName().equals(name)) {
-                return community;
-            }
+        Community community = name != null ? communities.get(name) : null;
+        if (community == null && communityInMappedSnapshot(name)) {
+            community = snapshotCommunity(mapped.findCommunity(name));
+        }
+        if (community == null) {
+            throw Failures.COMMUNITY_NOT_FOUND;
         }
-        throw new CommunityException("Comunidade não existe.");
+        return community;
     }
 
+    /**
+     * Checks if a community exists.
+     *
+     * @param name The name of the community.
+     * @return True if a community with the given name exists.
+     */
+
     public boolean hasCommunity(String name) {
-        for (Community community : communities) {
-            if (community.getName().equals(name)) {
-                return true;
-            }
+        return name != null && (communities.containsKey(name) || communityInMappedSnapshot(name));
+    }
+
+    /**
+     * Checks if a community that wasn't read yet exists in the mapped snapshot.
+     */
+
+    private boolean communityInMappedSnapshot(String name) {
+        MappedSnapshot snapshot = mapped;
+        return snapshot != null && name != null && !communities.containsKey(name)
+                && !removedCommunities.contains(name) && snapshot.findCommunity(name) >= 0;
+    }
+
+    /**
+     * Adds a community to the name and owner indexes.
+     *
+     * @param community The community to be indexed.
+     * @return False if a community with the same name already exists.
+     */
+
+    boolean indexCommunity(Community community) {
+        if (communities.putIfAbsent(community.getName(), community) != null) {
+            return false;
         }
-        return false;
+        communitiesByOwner.compute(community.getOwnerLogin(), (owner, owned) -> {
+            List<Community> list = owned != null ? owned : new ArrayList<>();
+            list.add(community);
+            return list;
+        });
+        return true;
     }
 
     /**
@@ -414,8 +1211,55 @@ public class Database {
      */
 
     public String readPosts(String sessionId) {
-        User user = getUserBySessionId(sessionId);
-        return user.readPost();
+        return tryReadPosts(sessionId).orThrow();
+    }
+
+    /**
+     * Reads a post, like {@link #readPosts}, returning an unknown session or the lack of unread
+     * posts as a failed result.
+     *
+     * @param sessionId The ID of the session.
+     * @return The post, or the failure.
+     */
+
+    public Result<String> tryReadPosts(String sessionId) {
+        if (!(sessionUser(sessionId) instanceof Result.Ok<User> session)) {
+            return Result.failed(Failures.USER_NOT_FOUND);
+        }
+
+        User user = session.value();
+        Result<String> post;
+
+        // posts are read from the logs of the user's communities, which are locked for reading;
+        // if the user joins a community before the locks are taken, the communities are read again
+        while (true) {
+            List<String> names;
+            try (LockStripes.Held ignored = locks.read(user.getLogin())) {
+                names = communityNames(user);
+            }
+
+            try (LockStripes.Held ignored = locks.lock(names, List.of(user.getLogin()))) {
+                checkRegistered(user);
+                if (communityNames(user).equals(names)) {
+                    post = user.takePost();
+                    if (post instanceof Result.Failed<String>) {
+                        return post;
+                    }
+                    record(Operation.READ_POST, user.getLogin());
+                    break;
+                }
+            }
+        }
+        compactIfDue();
+        return post;
+    }
+
+    private static List<String> communityNames(User user) {
+        List<String> names = new ArrayList<>();
+        for (Community community : user.getCommunities()) {
+            names.add(community.getName());
+        }
+        return names;
     }
 
     /**
@@ -429,9 +1273,16 @@ public class Database {
 
     public void createCommunity(String session, String name, String description) {
         User user = getUserBySessionId(session);
+        try (LockStripes.Held ignored = lockSession(user, name)) {
+            createCommunity(user, name, description);
+            record(Operation.CREATE_COMMUNITY, user.getLogin(), name, description);
+        }
+        compactIfDue();
+    }
 
+    private void createCommunity(User user, String name, String description) {
         if(hasCommunity(name)) {
-            throw new CommunityException("Comunidade com esse nome já existe.");
+            throw Failures.DUPLICATE_COMMUNITY;
         }
 
         UserList members = new UserList();
@@ -439,7 +1290,10 @@ public class Database {
 
         Community community = new Community(name, description, user, members);
 
-        communities.add(community);
+        if (!indexCommunity(community)) {
+            user.removeCommunity(community);
+            throw Failures.DUPLICATE_COMMUNITY;
+        }
     }
 
 
@@ -452,11 +1306,7 @@ public class Database {
      */
 
     public String getCommunityDescription(String name) {
-        if(hasCommunity(name)) {
-            return getCommunity(name).getDescription();
-        } else {
-            throw new CommunityException("Comunidade não existe.");
-        }
+        return getCommunity(name).getDescription();
     }
 
     /**
@@ -468,12 +1318,7 @@ public class Database {
      */
 
     public String getCommunityOwner(String name) {
-
-        if (hasCommunity(name)) {
-            return getCommunity(name).getOwnerLogin();
-        } else {
-            throw new CommunityException("Comunidade não existe.");
-        }
+        return getCommunity(name).getOwnerLogin();
     }
 
     /**
@@ -485,11 +1330,8 @@ public class Database {
      */
 
     public String getCommunityMembers(String name) {
-
-        if(hasCommunity(name)) {
+        try (LockStripes.Held ignored = locks.read(name)) {
             return getCommunity(name).membersToString();
-        } else {
-            throw new CommunityException("Comunidade não existe.");
         }
     }
 
@@ -503,12 +1345,11 @@ public class Database {
 
     public void addToCommunity(String session, String name) {
         User member = getUserBySessionId(session);
-        if(hasCommunity(name)) {
-            Community community = getCommunity(name);
-            community.addMember(member);
-        } else {
-            throw new CommunityException("Comunidade não existe.");
+        try (LockStripes.Held ignored = lockSession(member, name)) {
+            getCommunity(name).addMember(member);
+            record(Operation.ADD_TO_COMMUNITY, member.getLogin(), name);
         }
+        compactIfDue();
     }
 
     /**
@@ -520,8 +1361,10 @@ public class Database {
      */
 
     public String getUserCommunities(String login) {
-        User user = findUser(login);
-        return user.printCommunities();
+        try (LockStripes.Held ignored = locks.read(login)) {
+            User user = findUser(login);
+            return user.printCommunities();
+        }
     }
 
     /**
@@ -534,8 +1377,12 @@ public class Database {
 
     public void addIdol(String session, String idol) {
         User user = getUserBySessionId(session);
-        User idolUser = findUser(idol);
-        user.addIdol(idolUser);
+        try (LockStripes.Held ignored = lockSession(user, idol)) {
+            User idolUser = findUser(idol);
+            user.addIdol(idolUser);
+            record(Operation.ADD_IDOL, user.getLogin(), idolUser.getLogin());
+        }
+        compactIfDue();
     }
 
     /**
@@ -548,19 +1395,27 @@ public class Database {
      */
 
     public boolean isFan(String login, String idol) {
-        User user = findUser(login);
-        return user.isFanOf(findUser(idol));
+        try (LockStripes.Held ignored = locks.read(login, idol)) {
+            User user = findUser(login);
+            return user.isFanOf(findUser(idol));
+        }
     }
 
     public String getFans(String login) {
-        User user = findUser(login);
-        return user.printFans();
+        try (LockStripes.Held ignored = locks.read(login)) {
+            User user = findUser(login);
+            return user.printFans();
+        }
     }
 
     public void addFlirt (String session, String flirt) {
         User user = getUserBySessionId(session);
-        User flirted = findUser(flirt);
-        user.addFlirt(flirted);
+        try (LockStripes.Held ignored = lockSession(user, flirt)) {
+            User flirted = findUser(flirt);
+            user.addFlirt(flirted);
+            record(Operation.ADD_FLIRT, user.getLogin(), flirted.getLogin());
+        }
+        compactIfDue();
     }
 
   /**
@@ -574,8 +1429,10 @@ public class Database {
 
     public boolean isFlirt (String session, String flirt) {
         User user = getUserBySessionId(session);
-        User flirted = findUser(flirt);
-        return user.hasFlirt(flirted);
+        try (LockStripes.Held ignored = locks.read(user.getLogin(), flirt)) {
+            User flirted = findUser(flirt);
+            return user.hasFlirt(flirted);
+        }
     }
 
     /**
@@ -586,7 +1443,9 @@ public class Database {
 
     public String getFlirts (String session) {
         User user = getUserBySessionId(session);
-        return user.printFlirts();
+        try (LockStripes.Held ignored = locks.read(user.getLogin())) {
+            return user.printFlirts();
+        }
     }
 
     /**
@@ -599,7 +1458,11 @@ public class Database {
 
     public void addEnemy(String session, String enemy) {
         User user = getUserBySessionId(session);
-        User enemyUser = findUser(enemy);
-        user.addEnemy(enemyUser);
+        try (LockStripes.Held ignored = lockSession(user, enemy)) {
+            User enemyUser = findUser(enemy);
+            user.addEnemy(enemyUser);
+            record(Operation.ADD_ENEMY, user.getLogin(), enemyUser.getLogin());
+        }
+        compactIfDue();
     }
 }
\ No newline at end of file
@@ -0,0 +1,69 @@
+package br.ufal.ic.p2.jackut.system;
+
+import br.ufal.ic.p2.jackut.exceptions.AttributeException;
+import br.ufal.ic.p2.jackut.exceptions.CommunityException;
+import br.ufal.ic.p2.jackut.exceptions.MessageException;
+import br.ufal.ic.p2.jackut.exceptions.RelationshipException;
+import br.ufal.ic.p2.jackut.exceptions.UserException;
+
+/**
+ * The failures users run into in the ordinary course of use, created once without a stack
+ * trace and shared. Their messages are what the acceptance tests expect, and only the message
+ * and the type of each reach the caller. Accented letters are written as Unicode escapes, so the
+ * messages come out the same whatever encoding the sources are compiled with.
+ */
+
+final class Failures {
+
+    // Users and sessions
+
+    static final UserException USER_NOT_FOUND = new UserException("Usu\u00e1rio n\u00e3o cadastrado.", false);
+    static final UserException INVALID_CREDENTIALS = new UserException("Login ou senha inv\u00e1lidos.", false);
+    static final UserException INVALID_LOGIN = new UserException("Login inv\u00e1lido.", false);
+    static final UserException INVALID_PASSWORD = new UserException("Senha inv\u00e1lida.", false);
+    static final UserException DUPLICATE_USER = new UserException("Conta com esse nome j\u00e1 existe.", false);
+    static final UserException TOO_MANY_SESSIONS = new UserException("Limite de sess\u00f5es ativas atingido.", false);
+    static final AttributeException ATTRIBUTE_NOT_SET = new AttributeException("Atributo n\u00e3o preenchido.", false);
+
+    // Relationships
+
+    static final RelationshipException ALREADY_FRIENDS =
+            new RelationshipException("Usu\u00e1rio j\u00e1 est\u00e1 adicionado como amigo.", false);
+    static final RelationshipException FRIEND_REQUEST_PENDING =
+            new RelationshipException("Usu\u00e1rio j\u00e1 est\u00e1 adicionado como amigo, esperando aceita\u00e7\u00e3o do convite.", false);
+    static final RelationshipException SELF_FRIEND =
+            new RelationshipException("Usu\u00e1rio n\u00e3o pode adicionar a si mesmo como amigo.", false);
+    static final RelationshipException SELF_IDOL = new RelationshipException("Usu\u00e1rio n\u00e3o pode ser f\u00e3 de si mesmo.", false);
+    static final RelationshipException ALREADY_IDOL = new RelationshipException("Usu\u00e1rio j\u00e1 est\u00e1 adicionado como \u00eddolo.", false);
+    static final RelationshipException SELF_FLIRT = new RelationshipException("Usu\u00e1rio n\u00e3o pode ser paquera de si mesmo.", false);
+    static final RelationshipException ALREADY_FLIRT = new RelationshipException("Usu\u00e1rio j\u00e1 est\u00e1 adicionado como paquera.", false);
+    static final RelationshipException SELF_ENEMY = new RelationshipException("Usu\u00e1rio n\u00e3o pode ser inimigo de si mesmo.", false);
+    static final RelationshipException ALREADY_ENEMY = new RelationshipException("Usu\u00e1rio j\u00e1 est\u00e1 adicionado como inimigo.", false);
+
+    // Messages
+
+    static final MessageException SELF_MESSAGE = new MessageException("Usu\u00e1rio n\u00e3o pode enviar recado para si mesmo.", false);
+    static final MessageException NO_MESSAGES = new MessageException("N\u00e3o h\u00e1 recados.", false);
+    static final MessageException NO_POSTS = new MessageException("N\u00e3o h\u00e1 mensagens.", false);
+
+    // Communities
+
+    static final CommunityException COMMUNITY_NOT_FOUND = new CommunityException("Comunidade n\u00e3o existe.", false);
+    static final CommunityException DUPLICATE_COMMUNITY = new CommunityException("Comunidade com esse nome j\u00e1 existe.", false);
+    static final CommunityException ALREADY_MEMBER = new CommunityException("Usuario j\u00e1 faz parte dessa comunidade.", false);
+    static final CommunityException NOT_A_MEMBER = new CommunityException("Usuario n\u00e3o faz parte dessa comunidade.", false);
+
+    private Failures() {
+    }
+
+    /**
+     * Returns the failure of an action on an enemy, which names the enemy.
+     *
+     * @param name The name of the enemy.
+     * @return The failure, without a stack trace.
+     */
+
+    static RelationshipException enemy(String name) {
+        return new RelationshipException("Fun\u00e7\u00e3o inv\u00e1lida: " + name + " \u00e9 seu inimigo.", false);
+    }
+}
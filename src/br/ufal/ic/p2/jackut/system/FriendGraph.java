@@ -0,0 +1,168 @@
+package br.ufal.ic.p2.jackut.system;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * Queries over the friendship graph: mutual friends, friend-of-friend suggestions and degrees.
+ * <p>
+ * Only friendships accepted on both sides count. Friend lists are sets of user IDs, so an
+ * intersection walks the smaller list and tests each ID against the other. Suggestions count,
+ * for every friend of a friend, how many friends it shares with the user; when the friends of
+ * the user have many friends between them, the friends are split across the common pool and
+ * counted into a shared array indexed by user ID.
+ * <p>
+ * The caller holds the read locks of the users involved.
+ */
+
+final class FriendGraph {
+    /**
+     * Number of suggestions returned.
+     */
+    static final int SUGGESTIONS = 10;
+    /**
+     * Number of friend-of-friend edges above which suggestions are counted in parallel.
+     */
+    private static final int PARALLEL_THRESHOLD = 50_000;
+
+    private FriendGraph() {
+    }
+
+    /**
+     * Returns the friends two users have in common, in the order the first user added them.
+     *
+     * @param user  The first user.
+     * @param other The second user.
+     * @return The mutual friends.
+     */
+
+    static List<User> mutualFriends(User user, User other) {
+        int[] friends = user.friendIds();
+        int[] others = other.friendIds();
+        List<User> mutual = new ArrayList<>();
+        if (friends.length <= others.length) {
+            for (int id : friends) {
+                if (other.isFriendOf(id)) {
+                    mutual.add(user.getIds().get(id));
+                }
+            }
+        } else {
+            Map<Integer, Integer> positions = indexIn(friends);
+            List<Integer> ids = new ArrayList<>();
+            for (int id : others) {
+                if (user.isFriendOf(id)) {
+                    ids.add(id);
+                }
+            }
+            ids.sort(Comparator.comparing(positions::get));
+            for (int id : ids) {
+                mutual.add(user.getIds().get(id));
+            }
+        }
+        return mutual;
+    }
+
+    /**
+     * Returns the friends of the user's friends that the user isn't linked to yet, ranked by
+     * the number of friends they share with the user, then by login.
+     *
+     * @param user  The user.
+     * @param limit The maximum number of suggestions.
+     * @return The suggested users.
+     */
+
+    static List<User> suggestions(User user, int limit) {
+        UserIds ids = user.getIds();
+        int[] friends = user.friendIds();
+        int[][] friendsOfFriends = new int[friends.length][];
+        long edges = 0;
+        for (int i = 0; i < friends.length; i++) {
+            friendsOfFriends[i] = ids.get(friends[i]).friendIds();
+            edges += friendsOfFriends[i].length;
+        }
+
+        Map<Integer, Integer> overlap = edges > PARALLEL_THRESHOLD
+                ? countParallel(user, friendsOfFriends, ids.size())
+                : count(user, friendsOfFriends);
+
+        // keeps the best candidates in a heap whose head is the worst of them
+        Comparator<Map.Entry<Integer, Integer>> rank = Map.Entry.<Integer, Integer>comparingByValue().reversed()
+                .thenComparing(entry -> ids.get(entry.getKey()).getLogin());
+        PriorityQueue<Map.Entry<Integer, Integer>> best = new PriorityQueue<>(rank.reversed());
+        for (Map.Entry<Integer, Integer> entry : overlap.entrySet()) {
+            best.add(entry);
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+
+        List<Map.Entry<Integer, Integer>> ranked = new ArrayList<>(best);
+        ranked.sort(rank);
+        List<User> suggestions = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : ranked) {
+            suggestions.add(ids.get(entry.getKey()));
+        }
+        return suggestions;
+    }
+
+    /**
+     * Returns the number of friends of a user.
+     *
+     * @param user The user.
+     * @return The number of friendships accepted on both sides.
+     */
+
+    static int degree(User user) {
+        return user.getFriends().size();
+    }
+
+    private static Map<Integer, Integer> count(User user, int[][] friendsOfFriends) {
+        Map<Integer, Integer> overlap = new HashMap<>();
+        for (int[] candidates : friendsOfFriends) {
+            for (int candidate : candidates) {
+                if (isCandidate(user, candidate)) {
+                    overlap.merge(candidate, 1, Integer::sum);
+                }
+            }
+        }
+        return overlap;
+    }
+
+    private static Map<Integer, Integer> countParallel(User user, int[][] friendsOfFriends, int userCount) {
+        AtomicIntegerArray counts = new AtomicIntegerArray(userCount);
+        IntStream.range(0, friendsOfFriends.length).parallel().forEach(i -> {
+            for (int candidate : friendsOfFriends[i]) {
+                if (isCandidate(user, candidate)) {
+                    counts.incrementAndGet(candidate);
+                }
+            }
+        });
+
+        Map<Integer, Integer> overlap = new HashMap<>();
+        for (int id = 0; id < userCount; id++) {
+            int count = counts.get(id);
+            if (count > 0) {
+                overlap.put(id, count);
+            }
+        }
+        return overlap;
+    }
+
+    private static boolean isCandidate(User user, int candidate) {
+        return candidate != user.getId() && !user.isLinkedTo(candidate);
+    }
+
+    private static Map<Integer, Integer> indexIn(int[] ids) {
+        Map<Integer, Integer> positions = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            positions.put(ids[i], i);
+        }
+        return positions;
+    }
+}
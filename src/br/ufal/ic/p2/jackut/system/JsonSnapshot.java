@@ -0,0 +1,457 @@
+package br.ufal.ic.p2.jackut.system;
+
+import br.ufal.ic.p2.jackut.exceptions.JsonException;
+import com.fasterxml.jackson.core.*;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the snapshot files with Jackson's streaming API, one record at a time.
+ * <p>
+ * {@code users.json} holds a {@code users} section with the profile of every user followed by a
+ * {@code relationships} section where friends, fans, idols, flirts, enemies, communities and
+ * messages refer to other users by login. {@code communities.json} holds the communities, with
+ * owner and members as logins, the posts not yet read by every member and how many of them
+ * each member has read. A user's {@code timeline} only holds the posts that belong to no
+ * community. Posts keep the number that orders them across communities. Loading reads the users section, then the communities file,
+ * then the relationships section, so every reference resolves as soon as it is read. Both files
+ * start with the {@link WriteAheadLog.Position} they cover, as {@code logGeneration} and
+ * {@code logOffset}.
+ */
+
+public class JsonSnapshot {
+    static final int FORMAT = 3;
+
+    private final Database database;
+    private final JsonFactory factory;
+    private WriteAheadLog.Position logPosition = WriteAheadLog.Position.NONE;
+
+    /**
+     * Creates a snapshot reader that loads into the given database.
+     *
+     * @param database The database receiving the users and communities.
+     * @param factory  The factory used to create parsers.
+     */
+
+    public JsonSnapshot(Database database, JsonFactory factory) {
+        this.database = database;
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the position of the operation log covered by the last file read, or
+     * {@link WriteAheadLog.Position#NONE} if it didn't record one.
+     *
+     * @return The position.
+     */
+
+    public WriteAheadLog.Position logPosition() {
+        return logPosition;
+    }
+
+    /**
+     * Returns true if the file was written in the old object-graph format, a bare JSON array.
+     *
+     * @param file The snapshot file.
+     * @return True if the file must be read with the data binding API.
+     */
+
+    public boolean isLegacy(File file) {
+        try (JsonParser parser = factory.createParser(file)) {
+            return parser.nextToken() == JsonToken.START_ARRAY;
+        } catch (IOException e) {
+            throw new JsonException("Erro ao ler arquivo de usu\u00e1rios.", e);
+        }
+    }
+
+    /**
+     * Loads the users, stopping between the users and the relationships sections to run
+     * {@code loadCommunities}, so relationships can refer to communities.
+     *
+     * @param file            The users file.
+     * @param loadCommunities Loads the communities once every user exists.
+     */
+
+    public void readUsers(File file, Runnable loadCommunities) {
+        List<User> loaded = new ArrayList<>();
+
+        try (JsonParser parser = factory.createParser(file)) {
+            expect(parser, JsonToken.START_OBJECT);
+            logPosition = WriteAheadLog.Position.NONE;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String section = parser.currentName();
+                parser.nextToken();
+                switch (section) {
+                    case "logGeneration", "logOffset" -> readLogPosition(section, parser);
+                    case "users" -> {
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            User user = readUser(parser);
+                            database.registerUser(user);
+                            loaded.add(user);
+                        }
+                        loadCommunities.run();
+                    }
+                    case "relationships" -> {
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            readRelationships(parser);
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new JsonException("Erro ao ler arquivo de usu\u00e1rios.", e);
+        }
+
+        for (User user : loaded) {
+            user.restoreIncomingEdges();
+        }
+    }
+
+    /**
+     * Loads the communities. Every owner and member must already be loaded.
+     *
+     * @param file The communities file.
+     */
+
+    public void readCommunities(File file) {
+        try (JsonParser parser = factory.createParser(file)) {
+            expect(parser, JsonToken.START_OBJECT);
+            logPosition = WriteAheadLog.Position.NONE;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String section = parser.currentName();
+                parser.nextToken();
+                switch (section) {
+                    case "logGeneration", "logOffset" -> readLogPosition(section, parser);
+                    case "communities" -> {
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            database.indexCommunity(readCommunity(parser));
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new JsonException("Erro ao ler arquivo de comunidades.", e);
+        }
+    }
+
+    private void readLogPosition(String field, JsonParser parser) throws IOException {
+        long value = parser.getLongValue();
+        logPosition = field.equals("logGeneration")
+                ? new WriteAheadLog.Position(value, logPosition.offset())
+                : new WriteAheadLog.Position(logPosition.generation(), value);
+    }
+
+    private User readUser(JsonParser parser) throws IOException {
+        String login = null;
+        String password = null;
+        String name = null;
+        ArrayList<UserAttribute> attributes = new ArrayList<>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "login" -> login = parser.getValueAsString();
+                case "password" -> password = parser.getValueAsString();
+                case "name" -> name = parser.getValueAsString();
+                case "attributes" -> {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        String attribute = null;
+                        String value = null;
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String key = parser.currentName();
+                            parser.nextToken();
+                            if (key.equals("name")) attribute = parser.getValueAsString();
+                            else if (key.equals("value")) value = parser.getValueAsString();
+                            else parser.skipChildren();
+                        }
+                        attributes.add(new UserAttribute(attribute, value));
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+
+        return new User(login, password, name, attributes, null, null, null, null, null, null, null, null);
+    }
+
+    private void readRelationships(JsonParser parser) throws IOException {
+        User user = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if (field.equals("login")) {
+                user = database.findUser(parser.getValueAsString());
+                continue;
+            }
+            if (user == null) {
+                throw new JsonException("Erro ao ler arquivo de usu\u00e1rios.");
+            }
+
+            switch (field) {
+                case "friends" -> readLogins(parser, user.getFriendRequests());
+                case "fans" -> readLogins(parser, user.getFans());
+                case "idols" -> readLogins(parser, user.getIdols());
+                case "flirts" -> readLogins(parser, user.getFlirts());
+                case "enemies" -> readLogins(parser, user.getEnemies());
+                case "communities" -> {
+                    user.getCommunities().clear();
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        user.getCommunities().add(database.getCommunity(parser.getText()));
+                    }
+                }
+                case "inbox" -> readMessages(parser, user.getInbox());
+                case "timeline" -> user.keepPosts(readPosts(parser));
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    private void readLogins(JsonParser parser, UserList target) throws IOException {
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            target.add(database.findUser(parser.getText()));
+        }
+    }
+
+    private void readMessages(JsonParser parser, Collection<Message> target) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            target.add(readPost(parser).message());
+        }
+    }
+
+    /**
+     * Reads posts. Files of format 2 didn't number them, and merged the posts of a user's
+     * communities into the timeline; those are numbered in the order they are read.
+     */
+
+    private List<Post> readPosts(JsonParser parser) throws IOException {
+        List<Post> posts = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            posts.add(readPost(parser));
+        }
+        return posts;
+    }
+
+    private Post readPost(JsonParser parser) throws IOException {
+        String sender = null;
+        String text = null;
+        long sequence = -1;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "sender" -> sender = parser.getValueAsString();
+                case "message" -> text = parser.getValueAsString();
+                case "sequence" -> sequence = parser.getLongValue();
+                default -> parser.skipChildren();
+            }
+        }
+        Message message = toMessage(sender, text);
+        return sequence < 0 ? Post.of(message) : Post.restore(sequence, message);
+    }
+
+    /**
+     * Rebuilds a message from its sender login. Messages without a sender were sent by the system;
+     * posts whose sender no longer exists keep the login as a plain string.
+     */
+
+    private Message toMessage(String sender, String text) {
+        if (sender == null) {
+            return new SystemMessage(text);
+        }
+        if (database.hasUser(sender)) {
+            return new UserMessage(database.findUser(sender), text);
+        }
+        return new Message<>(sender, text);
+    }
+
+    private Community readCommunity(JsonParser parser) throws IOException {
+        String name = null;
+        String description = null;
+        User owner = null;
+        UserList members = new UserList();
+        List<Post> posts = List.of();
+        Map<User, Integer> read = new HashMap<>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "name" -> name = parser.getValueAsString();
+                case "description" -> description = parser.getValueAsString();
+                case "owner" -> owner = database.findUser(parser.getValueAsString());
+                case "members" -> readLogins(parser, members);
+                case "posts" -> posts = readPosts(parser);
+                case "read" -> {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        User member = database.findUser(parser.currentName());
+                        parser.nextToken();
+                        read.put(member, parser.getIntValue());
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+
+        Community community = new Community(name, description, owner, members);
+        community.restorePosts(posts, read);
+        for (User member : members) {
+            if (member != owner) {
+                member.addCommunity(community);
+            }
+        }
+        return community;
+    }
+
+    /**
+     * Writes the users file.
+     *
+     * @param users The users to be written.
+     * @param log   The position of the operation log the file covers.
+     * @param out   The destination.
+     * @throws IOException if writing fails.
+     */
+
+    public void writeUsers(Collection<User> users, WriteAheadLog.Position log, OutputStream out) throws IOException {
+        try (JsonGenerator generator = factory.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeNumberField("format", FORMAT);
+            writeLogPosition(generator, log);
+
+            generator.writeArrayFieldStart("users");
+            for (User user : users) {
+                generator.writeStartObject();
+                generator.writeStringField("login", user.getLogin());
+                generator.writeStringField("password", user.getPassword());
+                generator.writeStringField("name", user.getName());
+                generator.writeArrayFieldStart("attributes");
+                AttributeMap attributes = user.getAttributeMap();
+                for (int a = 0; a < attributes.size(); a++) {
+                    generator.writeStartObject();
+                    generator.writeStringField("name", attributes.name(a));
+                    generator.writeStringField("value", attributes.value(a));
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+
+            generator.writeArrayFieldStart("relationships");
+            for (User user : users) {
+                generator.writeStartObject();
+                generator.writeStringField("login", user.getLogin());
+                writeLogins(generator, "friends", user.getOutgoingFriends());
+                writeLogins(generator, "fans", user.getFans());
+                writeLogins(generator, "idols", user.getIdols());
+                writeLogins(generator, "flirts", user.getFlirts());
+                writeLogins(generator, "enemies", user.getEnemies());
+                generator.writeArrayFieldStart("communities");
+                for (Community community : user.getCommunities()) {
+                    generator.writeString(community.getName());
+                }
+                generator.writeEndArray();
+                writeMessages(generator, "inbox", user.getInbox());
+                writePosts(generator, "timeline", user.getTimelinePosts());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Writes the communities file.
+     *
+     * @param communities The communities to be written.
+     * @param log         The position of the operation log the file covers.
+     * @param out         The destination.
+     * @throws IOException if writing fails.
+     */
+
+    public void writeCommunities(Collection<Community> communities, WriteAheadLog.Position log, OutputStream out) throws IOException {
+        try (JsonGenerator generator = factory.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeNumberField("format", FORMAT);
+            writeLogPosition(generator, log);
+            generator.writeArrayFieldStart("communities");
+            for (Community community : communities) {
+                generator.writeStartObject();
+                generator.writeStringField("name", community.getName());
+                generator.writeStringField("description", community.getDescription());
+                generator.writeStringField("owner", community.getOwnerLogin());
+                writeLogins(generator, "members", community.getMembers());
+                writePosts(generator, "posts", community.getPosts());
+                generator.writeObjectFieldStart("read");
+                for (User member : community.getMembers()) {
+                    int count = community.readCount(member);
+                    if (count > 0) {
+                        generator.writeNumberField(member.getLogin(), count);
+                    }
+                }
+                generator.writeEndObject();
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    private static void writeLogPosition(JsonGenerator generator, WriteAheadLog.Position log) throws IOException {
+        generator.writeNumberField("logGeneration", log.generation());
+        generator.writeNumberField("logOffset", log.offset());
+    }
+
+    private static void writeLogins(JsonGenerator generator, String field, UserList users) throws IOException {
+        generator.writeArrayFieldStart(field);
+        for (User user : users) {
+            generator.writeString(user.getLogin());
+        }
+        generator.writeEndArray();
+    }
+
+    private static void writeMessages(JsonGenerator generator, String field, Collection<Message> messages) throws IOException {
+        generator.writeArrayFieldStart(field);
+        for (Message message : messages) {
+            generator.writeStartObject();
+            writeMessageFields(generator, message);
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+    }
+
+    private static void writePosts(JsonGenerator generator, String field, List<Post> posts) throws IOException {
+        generator.writeArrayFieldStart(field);
+        for (Post post : posts) {
+            generator.writeStartObject();
+            writeMessageFields(generator, post.message());
+            generator.writeNumberField("sequence", post.sequence());
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+    }
+
+    private static void writeMessageFields(JsonGenerator generator, Message message) throws IOException {
+        if (message.sender() instanceof User sender) {
+            generator.writeStringField("sender", sender.getLogin());
+        } else if (!(message instanceof SystemMessage)) {
+            generator.writeStringField("sender", String.valueOf(message.sender()));
+        }
+        generator.writeStringField("message", message.message());
+    }
+
+    private static void expect(JsonParser parser, JsonToken token) throws IOException {
+        if (parser.nextToken() != token) {
+            throw new JsonException("Formato de arquivo inv\u00e1lido.");
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package br.ufal.ic.p2.jackut.system;
+
+import br.ufal.ic.p2.jackut.exceptions.StorageException;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A fixed set of read-write locks shared out among logins and community names by hash.
+ * <p>
+ * An operation locks the stripes of every user and community it reads or changes, for reading
+ * or for writing, so operations on unrelated users run in parallel. Stripes are always taken in
+ * index order, so two operations never wait on each other in a cycle. Operations that touch an
+ * unbounded set of users, such as deleting an account or writing a snapshot, take every stripe.
+ * <p>
+ * Once {@link #fail(String)} is called, every later attempt to lock throws, so a change that
+ * couldn't be made durable is never seen by another operation.
+ */
+
+final class LockStripes {
+    private final ReentrantReadWriteLock[] stripes;
+    /**
+     * Message of the failure that stopped the stripes from being locked, or null.
+     */
+    private volatile String failure;
+
+    /**
+     * Held locks, released by {@link #close()}.
+     */
+
+    interface Held extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Creates the stripes.
+     *
+     * @param count The number of stripes, rounded up to a power of two.
+     */
+
+    LockStripes(int count) {
+        int size = Integer.highestOneBit(Math.max(1, count - 1)) << 1;
+        this.stripes = new ReentrantReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Locks the stripes of the given keys for reading.
+     *
+     * @param keys Logins or community names; null keys are ignored.
+     * @return The held locks.
+     */
+
+    Held read(String... keys) {
+        return lock(indexes(Arrays.asList(keys)), new int[0]);
+    }
+
+    /**
+     * Locks the stripes of the given keys for writing.
+     *
+     * @param keys Logins or community names; null keys are ignored.
+     * @return The held locks.
+     */
+
+    Held write(String... keys) {
+        return lock(new int[0], indexes(Arrays.asList(keys)));
+    }
+
+    /**
+     * Locks the stripes of the given keys for writing.
+     *
+     * @param keys Logins or community names; null keys are ignored.
+     * @return The held locks.
+     */
+
+    Held write(Collection<String> keys) {
+        return lock(new int[0], indexes(keys));
+    }
+
+    /**
+     * Locks the stripes of some keys for reading and of others for writing.
+     * A stripe shared by both is locked for writing.
+     *
+     * @param readKeys  Keys locked for reading; null keys are ignored.
+     * @param writeKeys Keys locked for writing; null keys are ignored.
+     * @return The held locks.
+     */
+
+    Held lock(Collection<String> readKeys, Collection<String> writeKeys) {
+        return lock(indexes(readKeys), indexes(writeKeys));
+    }
+
+    /**
+     * Locks every stripe for writing.
+     *
+     * @return The held locks.
+     */
+
+    Held exclusive() {
+        int[] all = new int[stripes.length];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        return lock(new int[0], all);
+    }
+
+    /**
+     * Refuses every later lock. Called while the locks of the failed change are still held.
+     *
+     * @param message The message of the exceptions thrown from now on.
+     */
+
+    void fail(String message) {
+        failure = message;
+    }
+
+    private int[] indexes(Collection<String> keys) {
+        int[] indexes = new int[keys.size()];
+        int count = 0;
+        for (String key : keys) {
+            if (key != null) {
+                int h = key.hashCode() * 0x9E3779B9;
+                indexes[count++] = (h ^ (h >>> 16)) & (stripes.length - 1);
+            }
+        }
+        Arrays.sort(indexes, 0, count);
+
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || indexes[distinct - 1] != indexes[i]) {
+                indexes[distinct++] = indexes[i];
+            }
+        }
+        return distinct == indexes.length ? indexes : Arrays.copyOf(indexes, distinct);
+    }
+
+    /**
+     * Locks both sorted sets of stripes, merging them so every stripe is taken in index order.
+     */
+
+    private Held lock(int[] reads, int[] writes) {
+        Lock[] locks = new Lock[reads.length + writes.length];
+        int held = 0;
+        int r = 0;
+        int w = 0;
+        try {
+            while (r < reads.length || w < writes.length) {
+                if (w < writes.length && (r == reads.length || writes[w] <= reads[r])) {
+                    if (r < reads.length && reads[r] == writes[w]) {
+                        r++;
+                    }
+                    locks[held] = stripes[writes[w++]].writeLock();
+                } else {
+                    locks[held] = stripes[reads[r++]].readLock();
+                }
+                locks[held].lock();
+                held++;
+            }
+        } catch (RuntimeException | Error e) {
+            unlock(locks, held);
+            throw e;
+        }
+        if (failure != null) {
+            unlock(locks, held);
+            throw new StorageException(failure);
+        }
+        int count = held;
+        return () -> unlock(locks, count);
+    }
+
+    private static void unlock(Lock[] locks, int held) {
+        for (int i = held - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+    }
+}
@@ -0,0 +1,642 @@
+package br.ufal.ic.p2.jackut.system;
+
+import br.ufal.ic.p2.jackut.exceptions.StorageException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Snapshot laid out to be opened with {@link FileChannel#map} and read on demand, so a
+ * database is ready without loading every user up front.
+ * <p>
+ * Layout: a {@code JKUM} magic number, the format version, the {@link WriteAheadLog.Position}
+ * the snapshot covers and the number of the last post made, one self-contained record per user
+ * and per community, a table with the offset of each record, hash indexes from login and
+ * community name to record number, and a trailer locating the tables. Records refer to other
+ * users and communities by record number. Opening a snapshot only reads the trailer; a user
+ * record is read the first time its login is looked up, and its attributes, relationships and
+ * messages the first time they are used. A community record holds the posts not yet read by
+ * every member and how many of them each member has read, and a user's timeline only the posts
+ * that belong to no community; posts are numbered as they were, and opening a snapshot makes
+ * new posts come after the ones it holds, read or not. The file is mapped in segments of 1 GiB and no record
+ * crosses a segment boundary.
+ */
+
+public class MappedSnapshot {
+    static final int MAGIC = 0x4A4B554D; // "JKUM"
+    static final int VERSION = 3;
+
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 4 * 4 + 4 * 8 + 4;
+
+    private static final byte USER_SENDER = 0;
+    private static final byte SYSTEM_SENDER = 1;
+    private static final byte DETACHED_SENDER = 2;
+
+    private final MappedByteBuffer[] segments;
+    private final int userCount;
+    private final int communityCount;
+    private final int userSlots;
+    private final int communitySlots;
+    private final long userTable;
+    private final long communityTable;
+    private final long userIndex;
+    private final long communityIndex;
+    private final WriteAheadLog.Position logPosition;
+    private final int version;
+
+    private MappedSnapshot(MappedByteBuffer[] segments, long size) {
+        this.segments = segments;
+
+        ByteBuffer header = at(0);
+        if (header.getInt() != MAGIC) {
+            throw new StorageException("Formato de snapshot inv\u00e1lido.");
+        }
+        this.version = header.getInt();
+        if (version < 1 || version > VERSION) {
+            throw new StorageException("Vers\u00e3o de snapshot n\u00e3o suportada.");
+        }
+        this.logPosition = version == 1
+                ? WriteAheadLog.Position.NONE
+                : new WriteAheadLog.Position(header.getLong(), header.getLong());
+        if (version >= 3) {
+            Post.advanceTo(header.getLong());
+        }
+
+        ByteBuffer trailer = at(size - TRAILER_SIZE);
+        this.userCount = trailer.getInt();
+        this.communityCount = trailer.getInt();
+        this.userSlots = trailer.getInt();
+        this.communitySlots = trailer.getInt();
+        this.userTable = trailer.getLong();
+        this.communityTable = trailer.getLong();
+        this.userIndex = trailer.getLong();
+        this.communityIndex = trailer.getLong();
+        if (trailer.getInt() != MAGIC) {
+            throw new StorageException("Snapshot incompleto.");
+        }
+    }
+
+    /**
+     * Maps a snapshot file. Nothing but the header and trailer is read.
+     *
+     * @param file The snapshot file.
+     * @return The opened snapshot.
+     * @throws StorageException if the file can't be mapped or has an unknown format.
+     */
+
+    public static MappedSnapshot open(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + TRAILER_SIZE) {
+                throw new StorageException("Formato de snapshot inv\u00e1lido.");
+            }
+
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+            return new MappedSnapshot(segments, size);
+        } catch (IOException e) {
+            throw new StorageException("Erro ao ler o snapshot.");
+        }
+    }
+
+    /**
+     * Returns the position of the operation log the snapshot covers.
+     *
+     * @return The position; {@link WriteAheadLog.Position#NONE} for version 1 files, which didn't record it.
+     */
+
+    public WriteAheadLog.Position logPosition() {
+        return logPosition;
+    }
+
+    /**
+     * Returns the number of users in the snapshot.
+     *
+     * @return The number of user records.
+     */
+
+    public int userCount() {
+        return userCount;
+    }
+
+    /**
+     * Returns the number of communities in the snapshot.
+     *
+     * @return The number of community records.
+     */
+
+    public int communityCount() {
+        return communityCount;
+    }
+
+    /**
+     * Looks up a login in the user index.
+     *
+     * @param login The login.
+     * @return The record number of the user, or -1 if the snapshot has no such user.
+     */
+
+    public int findUser(String login) {
+        return find(userIndex, userSlots, userTable, login);
+    }
+
+    /**
+     * Looks up a name in the community index.
+     *
+     * @param name The name of the community.
+     * @return The record number of the community, or -1 if the snapshot has no such community.
+     */
+
+    public int findCommunity(String name) {
+        return find(communityIndex, communitySlots, communityTable, name);
+    }
+
+    /**
+     * Returns the login stored in a user record.
+     *
+     * @param id The record number.
+     * @return The login of the user.
+     */
+
+    public String login(int id) {
+        return readString(at(getLong(userTable + 8L * id)));
+    }
+
+    /**
+     * Returns the name stored in a community record.
+     *
+     * @param id The record number.
+     * @return The name of the community.
+     */
+
+    public String communityName(int id) {
+        return readString(at(getLong(communityTable + 8L * id)));
+    }
+
+    /**
+     * Reads the login, password and name of a user. The rest of the record is read
+     * the first time the returned user needs it.
+     *
+     * @param id       The record number.
+     * @param database The database resolving references to other users and communities.
+     * @return The user.
+     */
+
+    User readUser(int id, Database database) {
+        ByteBuffer record = at(getLong(userTable + 8L * id));
+        User user = new User(readString(record), readString(record), readString(record),
+                null, null, null, null, null, null, null, null, null);
+        user.deferLoading(loaded -> readDetails(id, loaded, database));
+        return user;
+    }
+
+    /**
+     * Reads a community. Owner and members are resolved through the database, which only
+     * reads their logins.
+     *
+     * @param id       The record number.
+     * @param database The database resolving the owner and the members.
+     * @return The community.
+     */
+
+    Community readCommunity(int id, Database database) {
+        ByteBuffer record = at(getLong(communityTable + 8L * id));
+        String name = readString(record);
+        String description = readString(record);
+        User owner = database.snapshotUser(record.getInt());
+        UserList members = new UserList();
+        readUsers(record, members, database);
+        Community community = Community.restore(name, description, owner, members);
+        if (version >= 3) {
+            List<Post> posts = readPosts(record, database);
+            Map<User, Integer> read = new HashMap<>();
+            for (int count = record.getInt(); count > 0; count--) {
+                User member = database.snapshotUser(record.getInt());
+                int seen = record.getInt();
+                if (member != null) {
+                    read.put(member, seen);
+                }
+            }
+            community.restorePosts(posts, read);
+        }
+        return community;
+    }
+
+    private void readDetails(int id, User user, Database database) {
+        ByteBuffer record = at(getLong(userTable + 8L * id));
+        for (int skip = 0; skip < 3; skip++) {
+            int length = record.getInt();
+            if (length > 0) {
+                record.position(record.position() + length);
+            }
+        }
+
+        AttributeMap attributes = user.getAttributeMap();
+        for (int a = record.getInt(); a > 0; a--) {
+            attributes.put(readString(record), readString(record));
+        }
+
+        UserList outgoing = new UserList();
+        readUsers(record, outgoing, database);
+        readUsers(record, user.getFans(), database);
+        readUsers(record, user.getIdols(), database);
+        readUsers(record, user.getFlirts(), database);
+        readUsers(record, user.getEnemies(), database);
+        UserList incoming = new UserList();
+        readUsers(record, incoming, database);
+        user.restoreFriends(outgoing, incoming);
+        readUsers(record, user.getIncomingFlirts(), database);
+        readUsers(record, user.getIncomingEnemies(), database);
+        readUsers(record, user.getMessageRecipients(), database);
+
+        for (int c = record.getInt(); c > 0; c--) {
+            Community community = database.snapshotCommunity(record.getInt());
+            if (community != null) {
+                user.getCommunities().add(community);
+            }
+        }
+
+        readMessages(record, user.getInbox(), database);
+        if (version >= 3) {
+            user.keepPosts(readPosts(record, database));
+        } else {
+            List<Message> posts = new ArrayList<>();
+            readMessages(record, posts, database);
+            posts.forEach(user::receivePost);
+        }
+    }
+
+    private void readUsers(ByteBuffer record, UserList target, Database database) {
+        for (int count = record.getInt(); count > 0; count--) {
+            User user = database.snapshotUser(record.getInt());
+            if (user != null) {
+                target.add(user);
+            }
+        }
+    }
+
+    /**
+     * Reads messages written by {@link #writeMessages}. Posts from users deleted since the
+     * snapshot was taken keep the login as a plain string, like any other detached post.
+     */
+
+    private void readMessages(ByteBuffer record, Collection<Message> target, Database database) {
+        for (int count = record.getInt(); count > 0; count--) {
+            target.add(readMessage(record, database));
+        }
+    }
+
+    private List<Post> readPosts(ByteBuffer record, Database database) {
+        List<Post> posts = new ArrayList<>();
+        for (int count = record.getInt(); count > 0; count--) {
+            Message message = readMessage(record, database);
+            posts.add(Post.restore(record.getLong(), message));
+        }
+        return posts;
+    }
+
+    private Message readMessage(ByteBuffer record, Database database) {
+        byte kind = record.get();
+        if (kind == SYSTEM_SENDER) {
+            return new SystemMessage(readString(record));
+        } else if (kind == USER_SENDER) {
+            int sender = record.getInt();
+            User user = database.snapshotUser(sender);
+            String text = readString(record);
+            return user != null ? new UserMessage(user, text) : new Message<>(login(sender), text);
+        } else {
+            String sender = readString(record);
+            return new Message<>(sender, readString(record));
+        }
+    }
+
+    private int find(long index, int slots, long table, String key) {
+        if (key == null) {
+            return -1;
+        }
+
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        int mask = slots - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int entry = getInt(index + 4L * slot);
+            if (entry == 0) {
+                return -1;
+            }
+            if (keyEquals(at(getLong(table + 8L * (entry - 1))), bytes)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    private static boolean keyEquals(ByteBuffer record, byte[] key) {
+        if (record.getInt() != key.length) {
+            return false;
+        }
+        for (byte b : key) {
+            if (record.get() != b) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private ByteBuffer at(long position) {
+        ByteBuffer buffer = segments[(int) (position >>> SEGMENT_BITS)].duplicate();
+        buffer.position((int) (position & (SEGMENT_SIZE - 1)));
+        return buffer;
+    }
+
+    private long getLong(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].getLong((int) (position & (SEGMENT_SIZE - 1)));
+    }
+
+    private int getInt(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].getInt((int) (position & (SEGMENT_SIZE - 1)));
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a snapshot of the users and communities. Every user must be fully loaded.
+     *
+     * @param users       The users to be written.
+     * @param communities The communities to be written.
+     * @param log         The position of the operation log the snapshot covers.
+     * @param out         The destination.
+     * @throws IOException if writing fails.
+     */
+
+    public static void write(Collection<User> users, Collection<Community> communities, WriteAheadLog.Position log,
+                             OutputStream out) throws IOException {
+        Map<User, Integer> userIds = new IdentityHashMap<>();
+        Map<Community, Integer> communityIds = new IdentityHashMap<>();
+        for (User user : users) {
+            userIds.put(user, userIds.size());
+        }
+        for (Community community : communities) {
+            communityIds.put(community, communityIds.size());
+        }
+
+        RecordWriter writer = new RecordWriter(out);
+        writer.writeInt(MAGIC);
+        writer.writeInt(VERSION);
+        writer.writeLong(log.generation());
+        writer.writeLong(log.offset());
+        writer.writeLong(Post.last());
+
+        long[] userOffsets = new long[users.size()];
+        String[] logins = new String[users.size()];
+        int id = 0;
+        for (User user : users) {
+            DataOutputStream record = writer.startRecord();
+            writeString(record, user.getLogin());
+            writeString(record, user.getPassword());
+            writeString(record, user.getName());
+            AttributeMap attributes = user.getAttributeMap();
+            record.writeInt(attributes.size());
+            for (int a = 0; a < attributes.size(); a++) {
+                writeString(record, attributes.name(a));
+                writeString(record, attributes.value(a));
+            }
+            writeIds(record, user.getOutgoingFriends(), userIds);
+            writeIds(record, user.getFans(), userIds);
+            writeIds(record, user.getIdols(), userIds);
+            writeIds(record, user.getFlirts(), userIds);
+            writeIds(record, user.getEnemies(), userIds);
+            writeIds(record, user.getIncomingFriends(), userIds);
+            writeIds(record, user.getIncomingFlirts(), userIds);
+            writeIds(record, user.getIncomingEnemies(), userIds);
+            writeIds(record, user.getMessageRecipients(), userIds);
+            record.writeInt(user.getCommunities().size());
+            for (Community community : user.getCommunities()) {
+                record.writeInt(communityIds.get(community));
+            }
+            writeMessages(record, user.getInbox(), userIds);
+            writePosts(record, user.getTimelinePosts(), userIds);
+
+            logins[id] = user.getLogin();
+            userOffsets[id++] = writer.endRecord();
+        }
+
+        long[] communityOffsets = new long[communities.size()];
+        String[] names = new String[communities.size()];
+        id = 0;
+        for (Community community : communities) {
+            DataOutputStream record = writer.startRecord();
+            writeString(record, community.getName());
+            writeString(record, community.getDescription());
+            record.writeInt(userIds.get(community.getOwner()));
+            writeIds(record, community.getMembers(), userIds);
+            writePosts(record, community.getPosts(), userIds);
+            List<User> readers = new ArrayList<>();
+            for (User member : community.getMembers()) {
+                if (community.readCount(member) > 0) {
+                    readers.add(member);
+                }
+            }
+            record.writeInt(readers.size());
+            for (User reader : readers) {
+                record.writeInt(userIds.get(reader));
+                record.writeInt(community.readCount(reader));
+            }
+
+            names[id] = community.getName();
+            communityOffsets[id++] = writer.endRecord();
+        }
+
+        writer.align(8);
+        long userTable = writer.position();
+        for (long offset : userOffsets) {
+            writer.writeLong(offset);
+        }
+        long communityTable = writer.position();
+        for (long offset : communityOffsets) {
+            writer.writeLong(offset);
+        }
+
+        long userIndex = writer.position();
+        int[] userSlots = buildIndex(logins);
+        for (int entry : userSlots) {
+            writer.writeInt(entry);
+        }
+        long communityIndex = writer.position();
+        int[] communitySlots = buildIndex(names);
+        for (int entry : communitySlots) {
+            writer.writeInt(entry);
+        }
+
+        DataOutputStream trailer = writer.startRecord();
+        trailer.writeInt(users.size());
+        trailer.writeInt(communities.size());
+        trailer.writeInt(userSlots.length);
+        trailer.writeInt(communitySlots.length);
+        trailer.writeLong(userTable);
+        trailer.writeLong(communityTable);
+        trailer.writeLong(userIndex);
+        trailer.writeLong(communityIndex);
+        trailer.writeInt(MAGIC);
+        writer.endRecord();
+
+        writer.flush();
+    }
+
+    /**
+     * Builds an open-addressing table with a power-of-two number of slots, at most half full.
+     * Each slot holds a record number plus one, or zero when empty.
+     */
+
+    private static int[] buildIndex(String[] keys) {
+        int[] slots = new int[Integer.highestOneBit(Math.max(1, keys.length) * 2 - 1) << 1];
+        int mask = slots.length - 1;
+        for (int id = 0; id < keys.length; id++) {
+            if (keys[id] == null) {
+                continue;
+            }
+            int slot = hash(keys[id]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+        return slots;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeIds(DataOutputStream out, UserList users, Map<User, Integer> ids) throws IOException {
+        out.writeInt(users.size());
+        for (User user : users) {
+            out.writeInt(ids.get(user));
+        }
+    }
+
+    /**
+     * Writes messages as a sender kind, the sender and the text. Senders are user record
+     * numbers, nothing for system messages, or a string for posts whose sender no longer exists.
+     */
+
+    private static void writeMessages(DataOutputStream out, Collection<Message> messages, Map<User, Integer> ids) throws IOException {
+        out.writeInt(messages.size());
+        for (Message message : messages) {
+            writeMessage(out, message, ids);
+        }
+    }
+
+    /**
+     * Writes posts as messages, each followed by the number that orders it across communities.
+     */
+
+    private static void writePosts(DataOutputStream out, List<Post> posts, Map<User, Integer> ids) throws IOException {
+        out.writeInt(posts.size());
+        for (Post post : posts) {
+            writeMessage(out, post.message(), ids);
+            out.writeLong(post.sequence());
+        }
+    }
+
+    private static void writeMessage(DataOutputStream out, Message message, Map<User, Integer> ids) throws IOException {
+        if (message.sender() instanceof User sender && ids.containsKey(sender)) {
+            out.writeByte(USER_SENDER);
+            out.writeInt(ids.get(sender));
+        } else if (message instanceof SystemMessage) {
+            out.writeByte(SYSTEM_SENDER);
+        } else {
+            out.writeByte(DETACHED_SENDER);
+            writeString(out, message.sender() instanceof User sender ? sender.getLogin() : String.valueOf(message.sender()));
+        }
+        writeString(out, message.message());
+    }
+
+    /**
+     * Tracks the file position and moves records that would cross a segment boundary
+     * to the start of the next segment.
+     */
+
+    private static class RecordWriter {
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final DataOutputStream record = new DataOutputStream(buffer);
+        private long position;
+
+        RecordWriter(OutputStream out) {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        }
+
+        long position() {
+            return position;
+        }
+
+        DataOutputStream startRecord() {
+            buffer.reset();
+            return record;
+        }
+
+        long endRecord() throws IOException {
+            long size = buffer.size();
+            if (size > SEGMENT_SIZE) {
+                throw new StorageException("Registro grande demais para o snapshot.");
+            }
+            if ((position >>> SEGMENT_BITS) != ((position + size - 1) >>> SEGMENT_BITS)) {
+                align(SEGMENT_SIZE);
+            }
+            long start = position;
+            buffer.writeTo(out);
+            position += size;
+            return start;
+        }
+
+        void align(long alignment) throws IOException {
+            while (position % alignment != 0) {
+                out.writeByte(0);
+                position++;
+            }
+        }
+
+        void writeInt(int value) throws IOException {
+            out.writeInt(value);
+            position += 4;
+        }
+
+        void writeLong(long value) throws IOException {
+            out.writeLong(value);
+            position += 8;
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
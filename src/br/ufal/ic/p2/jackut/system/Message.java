@@ -16,7 +16,10 @@ import com.fasterxml.jackson.annotation.ObjectIdGenerators;
 public class Message<T> {
 
     private final T sender;
-    private final String message;
+    /**
+     * The text, shared with every other message that has the same text.
+     */
+    private final MessageStore.Payload payload;
 
     /**
      * @param sender
@@ -29,7 +32,7 @@ public class Message<T> {
             @JsonProperty("message") String message) {
 
         this.sender = (T) sender;
-        this.message = message;
+        this.payload = MessageStore.SHARED.intern(message);
     }
 
     public T sender() {
@@ -37,6 +40,22 @@ public class Message<T> {
     }
 
     public String message() {
-        return message;
+        return payload.text();
+    }
+
+    /**
+     * Records that an inbox, timeline or community log now holds this message.
+     */
+
+    void retain() {
+        MessageStore.SHARED.retain(payload);
+    }
+
+    /**
+     * Records that an inbox, timeline or community log no longer holds this message.
+     */
+
+    void release() {
+        MessageStore.SHARED.release(payload);
     }
 }
\ No newline at end of file
@@ -0,0 +1,417 @@
+package br.ufal.ic.p2.jackut.system;
+
+import br.ufal.ic.p2.jackut.exceptions.StorageException;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * First-in, first-out message queue that keeps at most a fixed number of messages in memory.
+ * <p>
+ * Once the queue is full, new messages are appended to a spill file and read back a page at a
+ * time as the messages in memory are consumed. Spilled records are buffered and appended to the
+ * file in batches, opening it only for as long as a batch takes, so a queue holds no file
+ * descriptor while it waits to be read. Spilled messages refer to their sender through a
+ * table of the users who sent them, so deleting a sender only marks its entry instead of
+ * rewriting the file. Spill files only hold a copy of what snapshots and the log already keep,
+ * so the ones left behind by a previous run are discarded when the system starts.
+ * <p>
+ * Messages in memory hold a reference to their payload in the {@link MessageStore}; spilled
+ * messages don't, and take one again when they are read back.
+ */
+
+final class MessageQueue extends AbstractQueue<Message> {
+    static final Path SPILL_DIRECTORY = Path.of("jackut.spill");
+    /**
+     * Number of messages each queue keeps in memory, set through the {@code jackut.inbox.capacity}
+     * system property.
+     */
+    static final int CAPACITY = Math.max(1, Integer.getInteger("jackut.inbox.capacity", 1024));
+    /**
+     * Number of bytes of spilled records buffered before they are appended to the file.
+     */
+    private static final int SPILL_BATCH = 8 << 10;
+
+    /**
+     * Spill files in use by queues of this process.
+     */
+    private static final Set<Path> OPEN_FILES = ConcurrentHashMap.newKeySet();
+
+    private static final int SYSTEM_SENDER = -1;
+    private static final int DETACHED_SENDER = -2;
+
+    private final int capacity;
+    private final ArrayDeque<Message> memory = new ArrayDeque<>();
+    /**
+     * Senders of spilled messages; an entry is null once its sender was deleted.
+     */
+    private final List<User> senders = new ArrayList<>();
+    private final Map<User, Integer> senderIds = new IdentityHashMap<>();
+    /**
+     * Number of spilled messages of each sender not read back yet.
+     */
+    private int[] spilledFrom = new int[4];
+    /**
+     * Number of messages in the queue from each user who sent any, spilled ones included;
+     * null while there are none.
+     */
+    private Map<User, Integer> countFrom;
+
+    private Path file;
+    /**
+     * Spilled records not appended to the file yet; null while nothing is spilled.
+     */
+    private ByteArrayOutputStream pending;
+    private long readPosition;
+    private int spilled;
+
+    MessageQueue() {
+        this(CAPACITY);
+    }
+
+    MessageQueue(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Deletes the spill files left behind by a previous run.
+     */
+
+    static void clearSpillFiles() {
+        File[] files = SPILL_DIRECTORY.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!OPEN_FILES.contains(file.toPath())) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean offer(Message message) {
+        if (message.sender() instanceof User sender) {
+            if (countFrom == null) {
+                countFrom = new IdentityHashMap<>();
+            }
+            countFrom.merge(sender, 1, Integer::sum);
+        }
+        if (spilled == 0 && memory.size() < capacity) {
+            message.retain();
+            memory.addLast(message);
+        } else {
+            spill(message);
+        }
+        return true;
+    }
+
+    @Override
+    public Message poll() {
+        if (memory.isEmpty() && spilled > 0) {
+            pageIn();
+        }
+        Message message = memory.pollFirst();
+        if (message != null) {
+            message.release();
+            if (message.sender() instanceof User sender) {
+                countFrom.computeIfPresent(sender, (user, count) -> count == 1 ? null : count - 1);
+            }
+        }
+        return message;
+    }
+
+    @Override
+    public Message peek() {
+        if (memory.isEmpty() && spilled > 0) {
+            pageIn();
+        }
+        return memory.peekFirst();
+    }
+
+    @Override
+    public int size() {
+        return memory.size() + spilled;
+    }
+
+    @Override
+    public void clear() {
+        for (Message message : memory) {
+            message.release();
+        }
+        memory.clear();
+        discardSpill();
+        countFrom = null;
+    }
+
+    /**
+     * Returns the number of messages in the queue sent by a user.
+     *
+     * @param sender The sender.
+     * @return The number of messages.
+     */
+
+    int countFrom(User sender) {
+        return countFrom == null ? 0 : countFrom.getOrDefault(sender, 0);
+    }
+
+    /**
+     * Returns the users who sent the messages in the queue, without reading spilled messages.
+     *
+     * @return The senders.
+     */
+
+    Set<User> sendersInQueue() {
+        return countFrom == null ? Set.of() : new HashSet<>(countFrom.keySet());
+    }
+
+    /**
+     * Removes every message sent by a user.
+     *
+     * @param sender The sender.
+     */
+
+    void removeFrom(User sender) {
+        if (countFrom == null || countFrom.remove(sender) == null) {
+            return;
+        }
+        memory.removeIf(message -> {
+            if (message.sender() != sender) {
+                return false;
+            }
+            message.release();
+            return true;
+        });
+
+        Integer id = senderIds.remove(sender);
+        if (id != null) {
+            senders.set(id, null);
+            spilled -= spilledFrom[id];
+            spilledFrom[id] = 0;
+            if (spilled == 0) {
+                discardSpill();
+            }
+        }
+    }
+
+    /**
+     * Iterates over the messages in memory and then over the spilled ones, which are read
+     * from the file as the iteration goes. The iterator doesn't support removal.
+     */
+
+    @Override
+    public Iterator<Message> iterator() {
+        Iterator<Message> head = Collections.unmodifiableCollection(memory).iterator();
+        if (spilled == 0) {
+            return head;
+        }
+
+        return new Iterator<>() {
+            private SpillReader reader;
+            private int remaining = spilled;
+            private Message next = advance();
+
+            private Message advance() {
+                if (head.hasNext()) {
+                    return head.next();
+                }
+                if (reader == null) {
+                    reader = new SpillReader();
+                }
+                while (remaining > 0) {
+                    Message message = reader.next();
+                    if (message != null) {
+                        remaining--;
+                        return message;
+                    }
+                }
+                reader.close();
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Message next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Message current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    private void spill(Message message) {
+        try {
+            if (file == null) {
+                Files.createDirectories(SPILL_DIRECTORY);
+                // Deleted by discardSpill() once read back, or by clearSpillFiles() on the next start.
+                file = Files.createTempFile(SPILL_DIRECTORY, "inbox", ".spill");
+                OPEN_FILES.add(file);
+                pending = new ByteArrayOutputStream();
+                readPosition = 0;
+            }
+
+            int sender;
+            if (message.sender() instanceof User user) {
+                sender = senderIds.computeIfAbsent(user, u -> {
+                    senders.add(u);
+                    return senders.size() - 1;
+                });
+                if (sender == spilledFrom.length) {
+                    spilledFrom = Arrays.copyOf(spilledFrom, sender * 2);
+                }
+                spilledFrom[sender]++;
+            } else {
+                sender = message instanceof SystemMessage ? SYSTEM_SENDER : DETACHED_SENDER;
+            }
+
+            byte[] text = message.message().getBytes(StandardCharsets.UTF_8);
+            byte[] name = sender == DETACHED_SENDER
+                    ? String.valueOf(message.sender()).getBytes(StandardCharsets.UTF_8)
+                    : new byte[0];
+            DataOutputStream out = new DataOutputStream(pending);
+            out.writeInt(sender);
+            out.writeInt(name.length);
+            out.write(name);
+            out.writeInt(text.length);
+            out.write(text);
+            spilled++;
+        } catch (IOException e) {
+            throw new StorageException("Erro ao gravar recados em disco.");
+        }
+
+        if (pending.size() >= SPILL_BATCH) {
+            flushSpill();
+        }
+    }
+
+    /**
+     * Appends the buffered records to the spill file.
+     */
+
+    private void flushSpill() {
+        if (pending == null || pending.size() == 0) {
+            return;
+        }
+        try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.APPEND)) {
+            pending.writeTo(out);
+            pending.reset();
+        } catch (IOException e) {
+            throw new StorageException("Erro ao gravar recados em disco.");
+        }
+    }
+
+    /**
+     * Reads up to a full queue of spilled messages back into memory.
+     */
+
+    private void pageIn() {
+        try (SpillReader reader = new SpillReader()) {
+            while (spilled > 0 && memory.size() < capacity) {
+                Message message = reader.next();
+                if (message != null) {
+                    message.retain();
+                    memory.addLast(message);
+                    spilled--;
+                    if (message.sender() instanceof User sender) {
+                        spilledFrom[senderIds.get(sender)]--;
+                    }
+                }
+            }
+            readPosition = reader.position;
+        }
+
+        if (spilled == 0) {
+            discardSpill();
+        }
+    }
+
+    /**
+     * Reads spilled records in order, starting at the first one not read back yet.
+     */
+
+    private final class SpillReader implements Closeable {
+        private final DataInputStream in;
+        private long position = readPosition;
+
+        SpillReader() {
+            flushSpill();
+            try {
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.READ).position(readPosition);
+                in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            } catch (IOException e) {
+                throw new StorageException("Erro ao ler recados do disco.");
+            }
+        }
+
+        /**
+         * Reads the next record.
+         *
+         * @return The message, or null if its sender was deleted.
+         */
+
+        Message next() {
+            try {
+                int sender = in.readInt();
+                String name = readString();
+                String text = readString();
+                position += 4;
+
+                return switch (sender) {
+                    case SYSTEM_SENDER -> new SystemMessage(text);
+                    case DETACHED_SENDER -> new Message<>(name, text);
+                    default -> senders.get(sender) != null ? new UserMessage(senders.get(sender), text) : null;
+                };
+            } catch (IOException e) {
+                throw new StorageException("Erro ao ler recados do disco.");
+            }
+        }
+
+        private String readString() throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            position += 4 + bytes.length;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new StorageException("Erro ao ler recados do disco.");
+            }
+        }
+    }
+
+    private void discardSpill() {
+        try {
+            if (file != null) {
+                OPEN_FILES.remove(file);
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            throw new StorageException("Erro ao apagar recados do disco.");
+        } finally {
+            pending = null;
+            file = null;
+            readPosition = 0;
+            spilled = 0;
+            senders.clear();
+            senderIds.clear();
+            Arrays.fill(spilledFrom, 0);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package br.ufal.ic.p2.jackut.system;
+
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * Content-addressed table of message texts, shared by every message in the process.
+ * <p>
+ * Messages with the same text point to the same {@link Payload}, whether they were sent
+ * once to many users or loaded from a snapshot one copy at a time. Inboxes, timelines and
+ * community logs retain the payloads of the messages they hold and release them when the
+ * message is read or dropped; a payload nobody holds leaves the table. Payloads of messages
+ * that were created but never stored are swept when the table grows. The table is split
+ * into stripes by hash so concurrent senders rarely share a lock.
+ */
+
+final class MessageStore {
+    static final MessageStore SHARED = new MessageStore(64);
+
+    private static final int MIN_SWEEP = 1024;
+
+    /**
+     * A message text and the number of inboxes, timelines and logs holding it.
+     */
+
+    static final class Payload {
+        private final String text;
+        private int references;
+
+        private Payload(String text) {
+            this.text = text;
+        }
+
+        String text() {
+            return text;
+        }
+    }
+
+    private static final class Stripe {
+        private final HashMap<String, Payload> payloads = new HashMap<>();
+        private int sweepAt = MIN_SWEEP;
+    }
+
+    private final Stripe[] stripes;
+
+    /**
+     * Creates an empty table.
+     *
+     * @param stripes The number of stripes, rounded up to a power of two.
+     */
+
+    MessageStore(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Returns the payload for a text, adding it to the table if it isn't there yet.
+     * The payload isn't retained.
+     *
+     * @param text The message text.
+     * @return The shared payload.
+     */
+
+    Payload intern(String text) {
+        Stripe stripe = stripe(text);
+        synchronized (stripe) {
+            Payload payload = stripe.payloads.get(text);
+            if (payload == null) {
+                if (stripe.payloads.size() >= stripe.sweepAt) {
+                    sweep(stripe);
+                }
+                payload = new Payload(text);
+                stripe.payloads.put(text, payload);
+            }
+            return payload;
+        }
+    }
+
+    /**
+     * Records that one more inbox, timeline or log holds the payload.
+     *
+     * @param payload The payload.
+     */
+
+    void retain(Payload payload) {
+        Stripe stripe = stripe(payload.text);
+        synchronized (stripe) {
+            if (payload.references++ == 0) {
+                stripe.payloads.putIfAbsent(payload.text, payload);
+            }
+        }
+    }
+
+    /**
+     * Records that an inbox, timeline or log no longer holds the payload,
+     * removing it from the table once nothing does.
+     *
+     * @param payload The payload.
+     */
+
+    void release(Payload payload) {
+        Stripe stripe = stripe(payload.text);
+        synchronized (stripe) {
+            if (--payload.references == 0) {
+                stripe.payloads.remove(payload.text, payload);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of distinct texts in the table.
+     *
+     * @return The number of payloads.
+     */
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.payloads.size();
+            }
+        }
+        return size;
+    }
+
+    private Stripe stripe(String text) {
+        int h = Objects.hashCode(text) * 0x9E3779B9;
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    /**
+     * Drops the payloads nobody retained. The next sweep waits until the stripe has doubled,
+     * so sweeping stays cheap per message.
+     */
+
+    private static void sweep(Stripe stripe) {
+        stripe.payloads.values().removeIf(payload -> payload.references == 0);
+        stripe.sweepAt = Math.max(MIN_SWEEP, stripe.payloads.size() * 2);
+    }
+}
@@ -0,0 +1,462 @@
+package br.ufal.ic.p2.jackut.system;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Counts calls, errors and latencies of the facade operations and of a few database internals,
+ * and the distribution of some collection sizes.
+ * <p>
+ * Every operation and distribution is registered with the platform MBean server under
+ * {@code br.ufal.ic.p2.jackut}, and {@link #dump()} renders all of them as text. Setting the
+ * {@code jackut.metrics.dump} system property to a number of seconds prints that dump to the
+ * standard error periodically.
+ * <p>
+ * Instrumentation is on unless the {@code jackut.metrics} property is {@code false}. The switch
+ * is read once into a constant, so with it off the JIT compiles the checks and the timing away
+ * and instrumented calls cost the same as plain ones.
+ */
+
+public final class Metrics {
+
+    /**
+     * Whether instrumentation is on.
+     */
+
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("jackut.metrics", "true"));
+
+    private static final long DUMP_PERIOD = Long.getLong("jackut.metrics.dump", 0);
+    private static final String DOMAIN = "br.ufal.ic.p2.jackut";
+
+    private static final Map<String, Operation> OPERATIONS = new ConcurrentSkipListMap<>();
+    private static final Map<String, Distribution> DISTRIBUTIONS = new ConcurrentSkipListMap<>();
+    private static final Map<String, Gauge<?>> GAUGES = new ConcurrentSkipListMap<>();
+
+    static {
+        if (ENABLED) {
+            register("type=Metrics", new Root());
+            if (DUMP_PERIOD > 0) {
+                ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+                    Thread thread = new Thread(task, "jackut-metrics-dump");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                dumper.scheduleAtFixedRate(() -> System.err.print(dump()), DUMP_PERIOD, DUMP_PERIOD, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the operation with the given name, creating it the first time.
+     *
+     * @param name The name of the operation, such as {@code facade.criarUsuario}.
+     * @return The operation.
+     */
+
+    public static Operation operation(String name) {
+        return OPERATIONS.computeIfAbsent(name, n -> register("type=Operation,name=" + n, new Operation(n)));
+    }
+
+    /**
+     * Returns the distribution with the given name, creating it the first time.
+     *
+     * @param name The name of the distribution, such as {@code community.sendPost.fanout}.
+     * @return The distribution.
+     */
+
+    public static Distribution distribution(String name) {
+        return DISTRIBUTIONS.computeIfAbsent(name, n -> register("type=Distribution,name=" + n, new Distribution(n)));
+    }
+
+    /**
+     * Reports a value read from an object when metrics are read, such as the number of users of
+     * a database. Only a weak reference to the object is kept, and a gauge registered later
+     * under the same name replaces the earlier one.
+     *
+     * @param name  The name of the gauge.
+     * @param owner The object the value is read from.
+     * @param value Reads the value.
+     * @param <T>   The type of the object.
+     */
+
+    public static <T> void gauge(String name, T owner, ToLongFunction<T> value) {
+        if (ENABLED) {
+            GAUGES.put(name, new Gauge<>(new WeakReference<>(owner), value));
+        }
+    }
+
+    /**
+     * Runs a call, recording its latency and, if it throws, the type of the exception.
+     *
+     * @param operation The operation the call belongs to.
+     * @param call      The call.
+     * @param <T>       The type of the result.
+     * @return The result of the call.
+     */
+
+    public static <T> T call(Operation operation, Supplier<T> call) {
+        if (!ENABLED) {
+            return call.get();
+        }
+
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            operation.fail(e);
+            throw e;
+        } finally {
+            operation.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Runs a call without a result, recording its latency and, if it throws, the type of the exception.
+     *
+     * @param operation The operation the call belongs to.
+     * @param call      The call.
+     */
+
+    public static void run(Operation operation, Runnable call) {
+        if (!ENABLED) {
+            call.run();
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            call.run();
+        } catch (RuntimeException e) {
+            operation.fail(e);
+            throw e;
+        } finally {
+            operation.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Runs a call returning a {@link Result}, recording its latency and, if it fails, the type
+     * of the failure, whether it is returned or thrown.
+     *
+     * @param operation The operation the call belongs to.
+     * @param call      The call.
+     * @param <T>       The type of the result's value.
+     * @return The result of the call.
+     */
+
+    public static <T> Result<T> result(Operation operation, Supplier<Result<T>> call) {
+        if (!ENABLED) {
+            return call.get();
+        }
+
+        long start = System.nanoTime();
+        try {
+            Result<T> result = call.get();
+            if (result instanceof Result.Failed<T> failed) {
+                operation.fail(failed.error());
+            }
+            return result;
+        } catch (RuntimeException e) {
+            operation.fail(e);
+            throw e;
+        } finally {
+            operation.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Renders every operation, distribution and gauge as a text table.
+     * Latencies are in microseconds.
+     *
+     * @return The rendered metrics.
+     */
+
+    public static String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-36s %10s %8s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "errors", "mean us", "p50 us", "p99 us", "p999 us", "max us"));
+        for (Operation operation : OPERATIONS.values()) {
+            if (operation.getCount() == 0) {
+                continue;
+            }
+            Map<String, Long> errors = operation.getErrors();
+            sb.append(String.format("%-36s %10d %8d %10.1f %10.1f %10.1f %10.1f %10.1f%n", operation.name,
+                    operation.getCount(), errors.values().stream().mapToLong(Long::longValue).sum(),
+                    operation.getMean() / 1_000.0, operation.getP50() / 1_000.0, operation.getP99() / 1_000.0,
+                    operation.getP999() / 1_000.0, operation.getMax() / 1_000.0));
+            errors.forEach((type, count) -> sb.append(String.format("    %-32s %10d%n", type, count)));
+        }
+
+        sb.append(String.format("%-36s %10s %8s %10s %10s %10s %10s %10s%n",
+                "distribution", "count", "", "mean", "p50", "p99", "p999", "max"));
+        for (Distribution distribution : DISTRIBUTIONS.values()) {
+            sb.append(String.format("%-36s %10d %8s %10.1f %10d %10d %10d %10d%n", distribution.name,
+                    distribution.getCount(), "", distribution.getMean(), distribution.getP50(),
+                    distribution.getP99(), distribution.getP999(), distribution.getMax()));
+        }
+
+        sb.append(String.format("%-36s %10s%n", "gauge", "value"));
+        gauges().forEach((name, value) -> sb.append(String.format("%-36s %10d%n", name, value)));
+        return sb.toString();
+    }
+
+    /**
+     * Clears every count, keeping the registered operations, distributions and gauges.
+     */
+
+    public static void reset() {
+        OPERATIONS.values().forEach(Operation::reset);
+        DISTRIBUTIONS.values().forEach(Distribution::reset);
+    }
+
+    private static Map<String, Long> gauges() {
+        Map<String, Long> values = new TreeMap<>();
+        GAUGES.forEach((name, gauge) -> {
+            Long value = gauge.read();
+            if (value != null) {
+                values.put(name, value);
+            }
+        });
+        return values;
+    }
+
+    private static <T> T register(String name, T bean) {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(bean, new ObjectName(DOMAIN + ":" + name));
+            } catch (JMException ignored) {
+                // another class loader registered the same name first; the metrics are still kept and dumped
+            }
+        }
+        return bean;
+    }
+
+    /**
+     * The JMX view of a {@link Distribution}.
+     */
+
+    public interface DistributionMXBean {
+        long getCount();
+
+        double getMean();
+
+        long getP50();
+
+        long getP99();
+
+        long getP999();
+
+        long getMax();
+
+        void reset();
+    }
+
+    /**
+     * The JMX view of an {@link Operation}. Latencies are in nanoseconds.
+     */
+
+    public interface OperationMXBean extends DistributionMXBean {
+        Map<String, Long> getErrors();
+    }
+
+    /**
+     * The JMX view of the whole set of metrics.
+     */
+
+    public interface MetricsMXBean {
+        String getDump();
+
+        Map<String, Long> getGauges();
+
+        void reset();
+    }
+
+    /**
+     * The distribution of a recorded value, kept in buckets whose width grows with the value so
+     * percentiles are within 1/16 of their magnitude. Buckets are updated atomically, so any
+     * number of threads may record at once.
+     */
+
+    public static class Distribution implements DistributionMXBean {
+        private static final int SUB_BUCKETS = 16;
+        private static final int SUB_BITS = 4;
+
+        final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        private final AtomicLongArray buckets = new AtomicLongArray(SUB_BUCKETS * (64 - SUB_BITS));
+
+        Distribution(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Records a value.
+         *
+         * @param value The value; negative values are recorded as 0.
+         */
+
+        public void record(long value) {
+            if (!ENABLED) {
+                return;
+            }
+            value = Math.max(0, value);
+            buckets.incrementAndGet(index(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        @Override
+        public long getP50() {
+            return percentile(0.50);
+        }
+
+        @Override
+        public long getP99() {
+            return percentile(0.99);
+        }
+
+        @Override
+        public long getP999() {
+            return percentile(0.999);
+        }
+
+        @Override
+        public long getMax() {
+            return max.get();
+        }
+
+        @Override
+        public void reset() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            sum.reset();
+            max.reset();
+        }
+
+        private long percentile(double quantile) {
+            long[] counts = new long[buckets.length()];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(getMax(), highest(i));
+                }
+            }
+            return getMax();
+        }
+
+        private static int index(long value) {
+            if (value < 2 * SUB_BUCKETS) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            return SUB_BUCKETS * shift + (int) (value >>> shift);
+        }
+
+        private static long highest(int index) {
+            if (index < 2 * SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            long sub = index - (long) SUB_BUCKETS * shift;
+            return ((sub + 1) << shift) - 1;
+        }
+    }
+
+    /**
+     * The latencies of an operation in nanoseconds, with the number of failed calls by
+     * exception type.
+     */
+
+    public static final class Operation extends Distribution implements OperationMXBean {
+        private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+        Operation(String name) {
+            super(name);
+        }
+
+        void fail(RuntimeException e) {
+            errors.computeIfAbsent(e.getClass().getSimpleName(), type -> new LongAdder()).increment();
+        }
+
+        @Override
+        public Map<String, Long> getErrors() {
+            Map<String, Long> counts = new TreeMap<>();
+            errors.forEach((type, count) -> counts.put(type, count.sum()));
+            return counts;
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            errors.clear();
+        }
+    }
+
+    private record Gauge<T>(WeakReference<T> owner, ToLongFunction<T> value) {
+        Long read() {
+            T current = owner.get();
+            return current != null ? value.applyAsLong(current) : null;
+        }
+    }
+
+    private static final class Root implements MetricsMXBean {
+        @Override
+        public String getDump() {
+            return dump();
+        }
+
+        @Override
+        public Map<String, Long> getGauges() {
+            return gauges();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
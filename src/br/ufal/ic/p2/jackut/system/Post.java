@@ -0,0 +1,61 @@
+package br.ufal.ic.p2.jackut.system;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A community post and the order in which it was made, used to read the posts of
+ * several communities in the order they were sent.
+ *
+ * @param sequence The position of the post among every post made so far.
+ * @param message  The post.
+ */
+
+record Post(long sequence, Message message) {
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    /**
+     * Numbers a new post.
+     *
+     * @param message The post.
+     * @return The numbered post.
+     */
+
+    static Post of(Message message) {
+        return new Post(SEQUENCE.incrementAndGet(), message);
+    }
+
+    /**
+     * Rebuilds a post read from a snapshot with the number it was given, so posts made from
+     * now on come after it.
+     *
+     * @param sequence The number of the post.
+     * @param message  The post.
+     * @return The post.
+     */
+
+    static Post restore(long sequence, Message message) {
+        advanceTo(sequence);
+        return new Post(sequence, message);
+    }
+
+    /**
+     * Returns the number of the last post made.
+     *
+     * @return The number.
+     */
+
+    static long last() {
+        return SEQUENCE.get();
+    }
+
+    /**
+     * Makes posts made from now on come after a number, as when a snapshot holding posts up
+     * to it is opened before they are read.
+     *
+     * @param sequence The number.
+     */
+
+    static void advanceTo(long sequence) {
+        SEQUENCE.accumulateAndGet(sequence, Math::max);
+    }
+}
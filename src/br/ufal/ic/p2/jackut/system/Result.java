@@ -0,0 +1,79 @@
+package br.ufal.ic.p2.jackut.system;
+
+/**
+ * The outcome of an operation that may fail in the ordinary course of use: a value, or the
+ * exception the caller would be given. Failures travel as values through the database, so a
+ * wrong password or an empty inbox costs no unwinding, and are thrown only at the facade,
+ * by {@link #orThrow()}.
+ *
+ * @param <T> The type of the value.
+ */
+
+public sealed interface Result<T> {
+
+    /**
+     * The result of an operation that succeeded without a value.
+     */
+
+    Result<Void> DONE = new Ok<>(null);
+
+    /**
+     * Creates a successful result.
+     *
+     * @param value The value.
+     * @param <T>   The type of the value.
+     * @return The result.
+     */
+
+    static <T> Result<T> of(T value) {
+        return new Ok<>(value);
+    }
+
+    /**
+     * Creates a failed result.
+     *
+     * @param error The exception to be thrown by {@link #orThrow()}.
+     * @param <T>   The type the value would have had.
+     * @return The result.
+     */
+
+    static <T> Result<T> failed(RuntimeException error) {
+        return new Failed<>(error);
+    }
+
+    /**
+     * Returns the value, or throws the exception of a failed result.
+     *
+     * @return The value.
+     */
+
+    T orThrow();
+
+    /**
+     * A successful result.
+     *
+     * @param value The value.
+     * @param <T>   The type of the value.
+     */
+
+    record Ok<T>(T value) implements Result<T> {
+        @Override
+        public T orThrow() {
+            return value;
+        }
+    }
+
+    /**
+     * A failed result.
+     *
+     * @param error The exception to be thrown by {@link #orThrow()}.
+     * @param <T>   The type the value would have had.
+     */
+
+    record Failed<T>(RuntimeException error) implements Result<T> {
+        @Override
+        public T orThrow() {
+            throw error;
+        }
+    }
+}
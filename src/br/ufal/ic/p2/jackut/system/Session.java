@@ -4,7 +4,11 @@ package br.ufal.ic.p2.jackut.system;
  * Represents a user session in the system.
  */
 
-public record Session(User user, String sessionId) {
+public final class Session {
+    private final User user;
+    private final String sessionId;
+    private volatile long lastAccess;
+
     /**
      * Constructs a new Session object with the provided user and session ID.
      *
@@ -12,13 +16,55 @@ public record Session(User user, String sessionId) {
      * @param sessionId The unique identifier for the session.
      */
 
-    public Session {
+    public Session(User user, String sessionId) {
         if (user == null) {
             throw new IllegalArgumentException("User cannot be null");
         }
         if (sessionId == null) {
             throw new IllegalArgumentException("Session ID cannot be null");
         }
+        this.user = user;
+        this.sessionId = sessionId;
+        this.lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the user associated with the session.
+     *
+     * @return The user associated with the session.
+     */
+
+    public User user() {
+        return user;
+    }
+
+    /**
+     * Returns the unique identifier of the session.
+     *
+     * @return The session ID.
+     */
+
+    public String sessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Returns the last time the session was used, in epoch milliseconds.
+     *
+     * @return The time of the last access.
+     */
+
+    public long lastAccess() {
+        return lastAccess;
     }
 
+    /**
+     * Marks the session as used now.
+     *
+     * @param now The current time in epoch milliseconds.
+     */
+
+    void touch(long now) {
+        this.lastAccess = now;
+    }
 }
@@ -0,0 +1,220 @@
+package br.ufal.ic.p2.jackut.system;
+
+import br.ufal.ic.p2.jackut.exceptions.UserException;
+
+import java.lang.ref.WeakReference;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the open sessions, keyed by a random token.
+ * Sessions idle for longer than the timeout are dropped, lazily when they are looked up
+ * and periodically by a background sweeper so abandoned ones don't pile up.
+ * The timeout and the maximum number of live sessions can be set through the
+ * {@code jackut.session.timeout} (minutes) and {@code jackut.session.max} system properties.
+ */
+
+public class SessionTable {
+    private static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(Long.getLong("jackut.session.timeout", 30));
+    private static final int DEFAULT_MAX_SESSIONS = Integer.getInteger("jackut.session.max", 1_000_000);
+    private static final int TOKEN_BYTES = 16;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "jackut-session-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    /**
+     * Number of sessions in the table, counting those being opened. A slot is reserved before a
+     * session is added and given back after it is removed, so concurrent logins can't go past
+     * the maximum.
+     */
+    private final AtomicInteger live = new AtomicInteger();
+    private final long idleTimeout;
+    private final int maxSessions;
+
+    /**
+     * Creates a session table with the configured timeout and capacity.
+     */
+
+    public SessionTable() {
+        this(DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_SESSIONS);
+    }
+
+    /**
+     * Creates a session table.
+     *
+     * @param idleTimeout The time in milliseconds after which an unused session expires.
+     * @param maxSessions The maximum number of live sessions.
+     */
+
+    public SessionTable(long idleTimeout, int maxSessions) {
+        this.idleTimeout = idleTimeout;
+        this.maxSessions = maxSessions;
+        scheduleSweep(this);
+    }
+
+    /**
+     * Opens a new session for the user.
+     *
+     * @param user The user that logged in.
+     * @return The token identifying the session.
+     * @throws UserException if the maximum number of live sessions was reached.
+     */
+
+    public String open(User user) {
+        if (!reserve()) {
+            sweep();
+            if (!reserve()) {
+                throw Failures.TOO_MANY_SESSIONS;
+            }
+        }
+
+        boolean added = false;
+        try {
+            while (true) {
+                String token = newToken();
+                if (sessions.putIfAbsent(token, new Session(user, token)) == null) {
+                    added = true;
+                    return token;
+                }
+            }
+        } finally {
+            if (!added) {
+                live.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Finds a live session and marks it as used.
+     *
+     * @param sessionId The token of the session.
+     * @return The session, or null if it doesn't exist or has expired.
+     */
+
+    public Session find(String sessionId) {
+        if (sessionId == null) {
+            return null;
+        }
+
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - session.lastAccess() > idleTimeout) {
+            remove(sessionId, session);
+            return null;
+        }
+
+        session.touch(now);
+        return session;
+    }
+
+    /**
+     * Closes a session.
+     *
+     * @param sessionId The token of the session.
+     */
+
+    public void close(String sessionId) {
+        if (sessionId != null && sessions.remove(sessionId) != null) {
+            live.decrementAndGet();
+        }
+    }
+
+    /**
+     * Closes every session of a user, such as when the account is deleted.
+     *
+     * @param user The user.
+     */
+
+    public void closeAll(User user) {
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            if (entry.getValue().user() == user) {
+                remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Closes every session.
+     */
+
+    public void clear() {
+        for (String sessionId : sessions.keySet()) {
+            close(sessionId);
+        }
+    }
+
+    /**
+     * Returns the number of live sessions.
+     *
+     * @return The number of sessions in the table.
+     */
+
+    public int size() {
+        return live.get();
+    }
+
+    /**
+     * Drops every session that has been idle for longer than the timeout.
+     */
+
+    public void sweep() {
+        long deadline = System.currentTimeMillis() - idleTimeout;
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            if (entry.getValue().lastAccess() < deadline) {
+                remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private boolean reserve() {
+        if (live.incrementAndGet() > maxSessions) {
+            live.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private void remove(String sessionId, Session session) {
+        if (sessions.remove(sessionId, session)) {
+            live.decrementAndGet();
+        }
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        RANDOM.nextBytes(bytes);
+        return ENCODER.encodeToString(bytes);
+    }
+
+    /**
+     * Sweeps the table periodically for as long as it is reachable.
+     * The task only holds a weak reference, so tables that are no longer used can be collected.
+     */
+
+    private static void scheduleSweep(SessionTable table) {
+        WeakReference<SessionTable> reference = new WeakReference<>(table);
+        long period = Math.max(1_000, Math.min(table.idleTimeout, TimeUnit.MINUTES.toMillis(1)));
+        Future<?>[] handle = new Future<?>[1];
+        handle[0] = SWEEPER.scheduleWithFixedDelay(() -> {
+            SessionTable current = reference.get();
+            if (current == null) {
+                handle[0].cancel(false);
+                return;
+            }
+            current.sweep();
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,23 @@
+package br.ufal.ic.p2.jackut.system;
+
+/**
+ * Converts the JSON snapshot in the working directory to the binary format, or to the mapped
+ * format when run with {@code mapped} as argument.
+ * The operation log is folded in first, so the new snapshot is complete and the log is left empty.
+ * Start the system with {@code -Djackut.snapshot=binary} or {@code -Djackut.snapshot=mapped} afterwards to use it.
+ */
+
+public class SnapshotConverter {
+    public static void main(String[] args) {
+        System.setProperty("jackut.snapshot", "json");
+        Database database = new Database();
+        database.checkpoint();
+        if (args.length > 0 && args[0].equals("mapped")) {
+            database.snapshotToMapped();
+            System.out.println("Snapshot convertido para jackut.mapped.");
+        } else {
+            database.snapshotToBinary();
+            System.out.println("Snapshot convertido para jackut.snapshot.");
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package br.ufal.ic.p2.jackut.system;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.function.Consumer;
 
-import br.ufal.ic.p2.jackut.exceptions.AttributeException;
-import br.ufal.ic.p2.jackut.exceptions.MessageException;
-import br.ufal.ic.p2.jackut.exceptions.RelationshipException;
 import com.fasterxml.jackson.annotation.*;
 
 
@@ -34,21 +36,26 @@ public class User {
     /**
      * The user's attributes.
      */
-    private final ArrayList<UserAttribute> attributes;
+    private final AttributeMap attributes = new AttributeMap();
     /**
-     * The user's friends.
+     * The user's friends: friendships accepted on both sides, in the order they were accepted.
      */
-    private final UserList friends;
+    private final UserList friends = new UserList();
     /**
-     * The user's inbox.
+     * Users this user invited as friends who haven't accepted yet.
      */
-    private final ArrayList<Message> inbox;
+    private final UserList friendRequests;
+    /**
+     * The user's inbox, oldest message first. Only the oldest messages are kept in memory.
+     */
+    private final MessageQueue inbox = new MessageQueue();
 
     /**
-     * The user's timeline.
+     * Posts on the user's timeline that no longer belong to a community log: posts loaded
+     * from a snapshot and unread posts of deleted communities. Ordered by sequence.
      */
 
-    private final ArrayList<Message> timeline;
+    private final ArrayDeque<Post> timeline = new ArrayDeque<>();
 
     /**
      * The user's fans.
@@ -71,7 +78,43 @@ public class User {
      */
     private final UserList enemies;
 
-    private ArrayList<Community> communities;
+    private final CommunityList communities = new CommunityList();
+
+    /**
+     * Users who invited this user as a friend and weren't accepted yet.
+     */
+    private final UserList incomingFriendRequests = new UserList();
+
+    /**
+     * The users that have this user as a flirt.
+     */
+    private final UserList incomingFlirts = new UserList();
+
+    /**
+     * The users that have this user as an enemy.
+     */
+    private final UserList incomingEnemies = new UserList();
+
+    /**
+     * The users whose inbox holds messages sent by this user.
+     */
+    private final UserList messageRecipients = new UserList();
+
+    /**
+     * The table that gave this user its ID, or null before the user is registered.
+     */
+    private UserIds ids;
+    /**
+     * The user's ID in {@link #ids}, or -1 before the user is registered.
+     */
+    private int id = -1;
+
+    /**
+     * Reads the attributes, relationships and messages of a user opened from a mapped snapshot,
+     * or null once they are loaded. Every method that uses them calls {@link #load()} first.
+     */
+    private volatile Consumer<User> loader;
+    private boolean loading;
 
     /**
      * Constructs a User object with the provided login, password, and name.
@@ -98,15 +141,24 @@ public class User {
         this.login = username;
         this.password = password;
         this.name = name;
-        this.attributes = attributes != null ? attributes : new ArrayList<>();
-        this.friends = friends != null ? friends : new UserList();
-        this.inbox = inbox != null ? inbox : new ArrayList<Message>();
-        this.timeline = timeline != null ? timeline : new ArrayList<>();
+        if (attributes != null) {
+            for (UserAttribute attribute : attributes) {
+                this.attributes.put(attribute.getName(), attribute.getValue());
+            }
+        }
+        this.friendRequests = friends != null ? friends : new UserList();
+        if (inbox != null) this.inbox.addAll(inbox);
+        if (timeline != null) {
+            for (Message message : timeline) {
+                message.retain();
+                this.timeline.add(Post.of(message));
+            }
+        }
         this.fans = fans != null ? fans : new UserList();
         this.idols = idols != null ? idols : new UserList();
         this.flirts = flirts != null ? flirts : new UserList();
         this.enemies = enemies != null ? enemies : new UserList();
-        this.communities = communities != null ? communities : new ArrayList<>();
+        if (communities != null) this.communities.addAll(communities);
     }
 
     /**
@@ -158,7 +210,8 @@ public class User {
      */
 
     public void addAttribute(String attribute, String value) {
-        attributes.add(new UserAttribute(attribute, value));
+        load();
+        attributes.put(attribute, value);
     }
 
     /**
@@ -169,36 +222,50 @@ public class User {
      */
 
     public void editAttribute(String attribute, String value) {
-        for (UserAttribute userAttribute : attributes) {
-            if (userAttribute.getName().equals(attribute)) {
-                userAttribute.setValue(value);
-                return;
-            }
-        }
-        addAttribute(attribute, value);
+        load();
+        attributes.put(attribute, value);
     }
 
     /**
-     * Returns the value of the provided attribute.
+     * Returns a copy of the user's attributes, in the order they were first set.
      *
-     * @return The value of the provided attribute.
+     * @return The user's attributes.
      */
 
     public ArrayList<UserAttribute> getAttributes() {
+        return exportAttributes();
+    }
+
+    /**
+     * Returns the user's attributes as they are stored, for the snapshot readers and writers.
+     *
+     * @return The user's attributes.
+     */
+
+    AttributeMap getAttributeMap() {
+        load();
         return attributes;
     }
 
     public String getAttribueValue(String attribute) {
-        if(attribute.equals("nome")) return name;
-        if((attributes.isEmpty())) throw new AttributeException("Atributo no preenchido.");
+        return attributeValue(attribute).orThrow();
+    }
 
-        for (UserAttribute userAttribute : attributes) {
-            if (userAttribute.getName().equals(attribute)) {
-                return userAttribute.getValue();
-            }
-        }
+    /**
+     * Returns the value of the provided attribute, or the failure if it isn't filled in.
+     *
+     * @param attribute The attribute ("nome" for the user's name).
+     * @return The value of the attribute.
+     */
+
+    Result<String> attributeValue(String attribute) {
+        if(attribute.equals("nome")) return Result.of(name);
+        load();
 
-        throw new AttributeException("Atributo no preenchido.");
+        int position = attributes.find(attribute);
+        if (position < 0) return Result.failed(Failures.ATTRIBUTE_NOT_SET);
+
+        return Result.of(attributes.value(position));
     }
 
     /**
@@ -206,24 +273,47 @@ public class User {
      */
 
     public ArrayList<UserAttribute> exportAttributes() {
-        return attributes;
+        load();
+        ArrayList<UserAttribute> exported = new ArrayList<>(attributes.size());
+        for (int i = 0; i < attributes.size(); i++) {
+            exported.add(new UserAttribute(attributes.name(i), attributes.value(i)));
+        }
+        return exported;
     }
 
     /**
-     * Adds a friend to the user's friend list.
+     * Invites a user as a friend, or accepts the user's invitation if there is one.
      *
      * @param user The user to be added.
      */
 
     public void addFriend(User user) {
-        if (friends.contains(user) && user.hasOnFriendList(this))
-            throw new RelationshipException("Usurio j est adicionado como amigo.");
-        if (friends.contains(user) && !user.hasOnFriendList(this))
-            throw new RelationshipException("Usurio j est adicionado como amigo, esperando aceitao do convite.");
-        if (user.equals(this)) throw new RelationshipException("Usurio no pode adicionar a si mesmo como amigo.");
-        if (enemies.contains(user) || user.isEnemyOf(user))
-            throw new RelationshipException("Funo invlida: " + user.getName() + "  seu inimigo.");
-        friends.add(user);
+        requestFriend(user).orThrow();
+    }
+
+    /**
+     * Invites a user as a friend, or accepts the user's invitation if there is one.
+     *
+     * @param user The user to be added.
+     * @return {@link Result#DONE}, or the reason the user can't be added.
+     */
+
+    Result<Void> requestFriend(User user) {
+        load();
+        user.load();
+        if (friends.contains(user)) return Result.failed(Failures.ALREADY_FRIENDS);
+        if (friendRequests.contains(user)) return Result.failed(Failures.FRIEND_REQUEST_PENDING);
+        if (user.equals(this)) return Result.failed(Failures.SELF_FRIEND);
+        if (enemies.contains(user) || user.isEnemyOf(user)) return Result.failed(Failures.enemy(user.getName()));
+        if (incomingFriendRequests.remove(user)) {
+            user.friendRequests.remove(this);
+            friends.add(user);
+            user.friends.add(this);
+        } else {
+            friendRequests.add(user);
+            user.incomingFriendRequests.add(this);
+        }
+        return Result.DONE;
     }
 
     /**
@@ -233,26 +323,65 @@ public class User {
      */
 
     public UserList getFriends() {
+        load();
         return friends;
     }
 
     public String printFriends() {
+        load();
         return friends.printAll();
     }
 
     /**
-     * Returns true if the provided user is a friend of this user.
+     * Returns true if the provided user is a friend of this user or was invited by it.
      *
      * @param user The user to be checked.
-     * @return True if the provided user is a friend of this user.
+     * @return True if this user added the provided user as a friend.
      */
 
     public boolean hasOnFriendList(User user) {
-        return friends.contains(user);
+        load();
+        return friends.contains(user) || friendRequests.contains(user);
     }
 
     public boolean isFriendOf(User user) {
-        return friends.contains(user) && user.hasOnFriendList(this);
+        load();
+        return friends.contains(user);
+    }
+
+    /**
+     * Returns the IDs of the user's friends, in the order the friendships were accepted.
+     *
+     * @return The IDs of the user's friends.
+     */
+
+    int[] friendIds() {
+        load();
+        return friends.ids();
+    }
+
+    /**
+     * Returns true if the friendship with a user was accepted on both sides.
+     *
+     * @param id The ID of the other user.
+     * @return True if they are friends.
+     */
+
+    boolean isFriendOf(int id) {
+        load();
+        return friends.containsId(id);
+    }
+
+    /**
+     * Returns true if this user is a friend of a user, or either of them invited the other.
+     *
+     * @param id The ID of the other user.
+     * @return True if either of them sent a friend request to the other.
+     */
+
+    boolean isLinkedTo(int id) {
+        load();
+        return friends.containsId(id) || friendRequests.containsId(id) || incomingFriendRequests.containsId(id);
     }
 
     /**
@@ -262,9 +391,12 @@ public class User {
      */
 
     public void addMessage(UserMessage message) {
-        if(enemies.contains(message.sender()) || message.sender().isEnemyOf(this)) throw new RelationshipException("Funo invlida: " + name + "  seu inimigo.");
-        if(message.sender().equals(this)) throw new RuntimeException("Usurio no pode enviar recado para si mesmo.");
+        load();
+        message.sender().load();
+        if(enemies.contains(message.sender()) || message.sender().isEnemyOf(this)) throw Failures.enemy(name);
+        if(message.sender().equals(this)) throw Failures.SELF_MESSAGE;
         inbox.add(message);
+        message.sender().messageRecipients.add(this);
     }
 
     /**
@@ -275,56 +407,110 @@ public class User {
      */
 
     public String readMessage() {
-        if (inbox.isEmpty()) throw new MessageException("No h recados.");
-        Message message = inbox.get(0);
-        inbox.remove(0);
-        return message.message();
+        return takeMessage().orThrow();
     }
 
     /**
-     * Returns the first message in the user's inbox.
-     * The message is removed from the inbox.
+     * Removes the first message from the user's inbox.
      *
-     * @return The first message in the user's inbox.
+     * @return The text of the message, or the failure if the inbox is empty.
      */
 
-    public ArrayList<Message> getInbox() {
-        return inbox;
+    Result<String> takeMessage() {
+        load();
+        Message message = inbox.poll();
+        if (message == null) return Result.failed(Failures.NO_MESSAGES);
+        if (message.sender() instanceof User sender && inbox.countFrom(sender) == 0) {
+            sender.load();
+            sender.messageRecipients.remove(this);
+        }
+        return Result.of(message.message());
     }
 
     /**
-     * Adds a message to the user's timeline.
+     * Returns the sender of the first message in the inbox if no other message from them is
+     * left, since reading that message also removes this user from the sender's recipients.
      *
-     * @param message The message to be added.
+     * @return The sender, or null if reading the first message changes no other user.
      */
 
-    public void getPost(Message message) {
-        timeline.add(message);
+    User lastMessageSenderAtHead() {
+        load();
+        Message message = inbox.peek();
+        if (message != null && message.sender() instanceof User sender && inbox.countFrom(sender) == 1) {
+            return sender;
+        }
+        return null;
     }
 
     /**
-     * Returns the first message in the user's inbox.
-     * The message is removed from the inbox.
+     * Returns the user's inbox, oldest message first.
      *
-     * @return The first message in the user's inbox.
+     * @return The user's inbox.
+     */
+
+    public Queue<Message> getInbox() {
+        load();
+        return inbox;
+    }
+
+    /**
+     * Returns the oldest unread post, across the user's timeline and the logs of its communities.
+     * The post is marked as read.
+     *
+     * @return The oldest unread post.
      */
 
     public String readPost() {
-        if (timeline.isEmpty()) throw new RuntimeException("No h mensagens.");
-        Message message = timeline.get(0);
-        timeline.remove(0);
-        return message.message();
+        return takePost().orThrow();
     }
 
     /**
-     * Returns the first message in the user's inbox.
-     * The message is removed from the inbox.
+     * Marks the oldest unread post as read.
      *
-     * @return The first message in the user's inbox.
+     * @return The text of the post, or the failure if there is none.
+     */
+
+    Result<String> takePost() {
+        load();
+        Post next = timeline.peekFirst();
+        Community source = null;
+        for (Community community : communities) {
+            Post post = community.nextPost(this);
+            if (post != null && (next == null || post.sequence() < next.sequence())) {
+                next = post;
+                source = community;
+            }
+        }
+
+        if (next == null) return Result.failed(Failures.NO_POSTS);
+        if (source != null) {
+            source.consumePost(this);
+        } else {
+            timeline.pollFirst().message().release();
+        }
+        return Result.of(next.message().message());
+    }
+
+    /**
+     * Returns the unread posts, oldest first. Reading them doesn't mark them as read.
+     *
+     * @return The unread posts.
      */
 
     public ArrayList<Message> getTimeline() {
-        return timeline;
+        load();
+        List<Post> unread = new ArrayList<>(timeline);
+        for (Community community : communities) {
+            unread.addAll(community.unreadPosts(this));
+        }
+        unread.sort(Comparator.comparingLong(Post::sequence));
+
+        ArrayList<Message> messages = new ArrayList<>(unread.size());
+        for (Post post : unread) {
+            messages.add(post.message());
+        }
+        return messages;
     }
 
     /**
@@ -334,6 +520,7 @@ public class User {
      */
 
     public void addFan(User fan) {
+        load();
         fans.add(fan);
     }
 
@@ -344,10 +531,12 @@ public class User {
      */
 
     public UserList getFans() {
+        load();
         return fans;
     }
 
     public String printFans() {
+        load();
         return fans.printAll();
     }
 
@@ -359,6 +548,7 @@ public class User {
      */
 
     public boolean isFanOf(User idol) {
+        load();
         return this.idols.contains(idol);
     }
 
@@ -369,9 +559,10 @@ public class User {
      */
 
     public void addIdol(User idol) {
-        if(idol.equals(this)) throw new RelationshipException("Usurio no pode ser f de si mesmo.");
-        if(idols.contains(idol)) throw new RelationshipException("Usurio j est adicionado como dolo.");
-        if(enemies.contains(idol) || idol.isEnemyOf(this)) throw new RelationshipException("Funo invlida: " + idol.getName() + "  seu inimigo.");
+        load();
+        if(idol.equals(this)) throw Failures.SELF_IDOL;
+        if(idols.contains(idol)) throw Failures.ALREADY_IDOL;
+        if(enemies.contains(idol) || idol.isEnemyOf(this)) throw Failures.enemy(idol.getName());
         idols.add(idol);
         idol.addFan(this);
     }
@@ -383,6 +574,7 @@ public class User {
      */
 
     public UserList getIdols() {
+        load();
         return idols;
     }
 
@@ -393,10 +585,13 @@ public class User {
      */
 
     public void addFlirt(User flirt) {
-        if(flirt.equals(this)) throw new RelationshipException("Usurio no pode ser paquera de si mesmo.");
-        if(flirts.contains(flirt)) throw new RelationshipException("Usurio j est adicionado como paquera.");
-        if(enemies.contains(flirt) || flirt.isEnemyOf(this)) throw new RelationshipException("Funo invlida: " + flirt.getName() + "  seu inimigo.");
+        load();
+        flirt.load();
+        if(flirt.equals(this)) throw Failures.SELF_FLIRT;
+        if(flirts.contains(flirt)) throw Failures.ALREADY_FLIRT;
+        if(enemies.contains(flirt) || flirt.isEnemyOf(this)) throw Failures.enemy(flirt.getName());
         flirts.add(flirt);
+        flirt.incomingFlirts.add(this);
         if(flirt.hasFlirt(this)) {
             inbox.add(
                     new SystemMessage(flirt.getName() + "  seu paquera - Recado do Jackut.")
@@ -411,10 +606,12 @@ public class User {
      */
 
     public UserList getFlirts() {
+        load();
         return flirts;
     }
 
     public String printFlirts() {
+        load();
         return flirts.printAll();
     }
 
@@ -426,6 +623,7 @@ public class User {
      */
 
     public boolean hasFlirt(User flirt) {
+        load();
         return this.flirts.contains(flirt);
     }
 
@@ -436,9 +634,12 @@ public class User {
      */
 
     public void addEnemy(User enemy) {
-        if(enemies.contains(enemy)) throw new RelationshipException("Usurio j est adicionado como inimigo.");
-        if(enemy.equals(this)) throw new RelationshipException("Usurio no pode ser inimigo de si mesmo.");
+        load();
+        enemy.load();
+        if(enemies.contains(enemy)) throw Failures.ALREADY_ENEMY;
+        if(enemy.equals(this)) throw Failures.SELF_ENEMY;
         enemies.add(enemy);
+        enemy.incomingEnemies.add(this);
     }
 
     /**
@@ -448,6 +649,7 @@ public class User {
      */
 
     public UserList getEnemies() {
+        load();
         return enemies;
     }
 
@@ -460,6 +662,7 @@ public class User {
      */
 
     public boolean isEnemyOf(User enemy) {
+        load();
         return this.enemies.contains(enemy);
     }
 
@@ -470,7 +673,14 @@ public class User {
      */
 
     public void removeFriend(User friend) {
+        load();
+        friend.load();
         friends.remove(friend);
+        friend.friends.remove(this);
+        friendRequests.remove(friend);
+        friend.incomingFriendRequests.remove(this);
+        incomingFriendRequests.remove(friend);
+        friend.friendRequests.remove(this);
     }
 
     /**
@@ -480,6 +690,7 @@ public class User {
      */
 
     public void removeFan(String fan) {
+        load();
         fans.remove(fan);
     }
 
@@ -490,7 +701,10 @@ public class User {
      */
 
     public void removeIdol(User idol) {
+        load();
+        idol.load();
         idols.remove(idol);
+        idol.fans.remove(this);
     }
 
     /**
@@ -500,7 +714,10 @@ public class User {
      */
 
     public void removeFlirt(User flirt) {
+        load();
+        flirt.load();
         flirts.remove(flirt);
+        flirt.incomingFlirts.remove(this);
     }
 
     /**
@@ -510,52 +727,305 @@ public class User {
      */
 
     public void removeEnemy(User enemy) {
+        load();
+        enemy.load();
         enemies.remove(enemy);
+        enemy.incomingEnemies.remove(this);
     }
 
     /**
-     * Removes all messages from the user's inbox.
+     * Adds a community to the communities the user is a member of.
+     *
+     * @param community The community.
      */
 
     public void addCommunity(Community community) {
+        load();
         communities.add(community);
-        System.out.println(community.getName());
+    }
+
+    /**
+     * Returns the communities the user is a member of.
+     *
+     * @return The communities the user is a member of.
+     */
+
+    @JsonIgnore
+    public ArrayList<Community> getCommunities() {
+        load();
+        return communities;
     }
 
     public String printCommunities() {
-        System.out.println(communities.size());
-        StringBuilder sb = new StringBuilder();
-        sb.append('{');
+        load();
+        return communities.printAll();
+    }
 
-        for (Community community : communities) {
-            System.out.println(community.getName());
-            sb.append(community.getName());
-            sb.append(',');
+    /**
+     * Removes every message sent by the provided user from the inbox.
+     *
+     * @param sender The sender whose messages are removed.
+     */
+
+    public void removeMessagesFromSender(User sender) {
+        load();
+        inbox.removeFrom(sender);
+    }
+
+    /**
+     * Discards the user's inbox, including the messages spilled to disk, and timeline.
+     * Used when the user is removed from the system.
+     */
+
+    void discardMessages() {
+        inbox.clear();
+        for (Post post : timeline) {
+            post.message().release();
         }
+        timeline.clear();
+    }
+
+    /**
+     * Removes every relationship and message that links this user to others,
+     * in both directions. Only the users connected to this one are visited.
+     */
 
-        if (sb.length() > 1) {
-            sb.deleteCharAt(sb.length() - 1); // Remove the trailing comma
+    public void removeAllRelationships() {
+        load();
+        for (User user : new ArrayList<>(friends)) removeFriend(user);
+        for (User user : new ArrayList<>(friendRequests)) removeFriend(user);
+        for (User user : new ArrayList<>(incomingFriendRequests)) removeFriend(user);
+        for (User user : new ArrayList<>(fans)) user.removeIdol(this);
+        for (User user : new ArrayList<>(idols)) removeIdol(user);
+        for (User user : new ArrayList<>(incomingFlirts)) user.removeFlirt(this);
+        for (User user : new ArrayList<>(flirts)) removeFlirt(user);
+        for (User user : new ArrayList<>(incomingEnemies)) user.removeEnemy(this);
+        for (User user : new ArrayList<>(enemies)) removeEnemy(user);
+
+        for (User user : messageRecipients) user.removeMessagesFromSender(this);
+        messageRecipients.clear();
+
+        for (User sender : inbox.sendersInQueue()) {
+            sender.load();
+            sender.messageRecipients.remove(this);
         }
+    }
 
-        sb.append('}');
+    /**
+     * Registers this user on the incoming indexes of everyone it points to.
+     * Those indexes are not persisted, so they are rebuilt after loading users from a file.
+     */
+
+    void restoreIncomingEdges() {
+        // friend invitations are stored in one direction; an invitation returned by the
+        // other user is an accepted friendship, on either side, in each user's own order
+        for (User user : new ArrayList<>(friendRequests)) {
+            if (user.friendRequests.contains(this) || user.friends.contains(this)) {
+                friendRequests.remove(user);
+                friends.add(user);
+            } else {
+                user.incomingFriendRequests.add(this);
+            }
+        }
+        for (User user : flirts) user.incomingFlirts.add(this);
+        for (User user : enemies) user.incomingEnemies.add(this);
+        for (User user : idols) user.fans.add(this);
 
-        return sb.toString();
+        for (User sender : inbox.sendersInQueue()) {
+            sender.messageRecipients.add(this);
+        }
     }
 
-    public void removeMessagesFromSender(User sender) {
-        for (Message message : inbox) {
-            if (message.sender().equals(sender)) {
-                inbox.remove(message);
+    /**
+     * Records the ID given to this user by a database.
+     *
+     * @param ids The table that gave the ID.
+     * @param id  The ID.
+     */
+
+    void assignId(UserIds ids, int id) {
+        this.ids = ids;
+        this.id = id;
+    }
+
+    /**
+     * Returns the user's ID.
+     *
+     * @return The ID, or -1 if the user isn't registered.
+     */
+
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the table that gave this user its ID.
+     *
+     * @return The table, or null if the user isn't registered.
+     */
+
+    UserIds getIds() {
+        return ids;
+    }
+
+    /**
+     * Defers loading everything but the login, password and name until first used.
+     *
+     * @param loader Fills in the attributes, relationships and messages of this user.
+     */
+
+    void deferLoading(Consumer<User> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Runs the pending loader, if any. Calls made by the loader itself return immediately,
+     * and other threads wait until it finishes.
+     */
+
+    void load() {
+        if (loader == null) {
+            return;
+        }
+        synchronized (this) {
+            Consumer<User> pending = loader;
+            if (pending == null || loading) {
                 return;
             }
+            loading = true;
+            try {
+                pending.accept(this);
+                loader = null;
+            } finally {
+                loading = false;
+            }
         }
     }
 
+    /**
+     * Returns the friend invitations this user sent that weren't accepted yet.
+     * Snapshot readers add every invitation here, and {@link #restoreIncomingEdges()} or
+     * {@link #restoreFriends(UserList, UserList)} then moves the accepted ones to the friends.
+     *
+     * @return The pending invitations.
+     */
+
+    UserList getFriendRequests() {
+        load();
+        return friendRequests;
+    }
+
+    /**
+     * Returns every user this user invited as a friend, accepted or not, as stored in snapshots.
+     *
+     * @return The friends followed by the pending invitations.
+     */
+
+    UserList getOutgoingFriends() {
+        load();
+        UserList outgoing = new UserList();
+        outgoing.addAll(friends);
+        outgoing.addAll(friendRequests);
+        return outgoing;
+    }
+
+    /**
+     * Returns every user who invited this user as a friend, accepted or not, as stored in snapshots.
+     *
+     * @return The friends followed by the pending invitations received.
+     */
+
+    UserList getIncomingFriends() {
+        load();
+        UserList incoming = new UserList();
+        incoming.addAll(friends);
+        incoming.addAll(incomingFriendRequests);
+        return incoming;
+    }
+
+    /**
+     * Restores the friendships of a user read on its own from a snapshot: invitations sent and
+     * received by the same user are friendships, the others are pending.
+     *
+     * @param outgoing The users this user invited, in order.
+     * @param incoming The users who invited this user.
+     */
+
+    void restoreFriends(UserList outgoing, UserList incoming) {
+        for (User user : outgoing) {
+            if (incoming.contains(user)) {
+                friends.add(user);
+            } else {
+                friendRequests.add(user);
+            }
+        }
+        for (User user : incoming) {
+            if (!outgoing.contains(user)) {
+                incomingFriendRequests.add(user);
+            }
+        }
+    }
+
+    UserList getIncomingFlirts() {
+        load();
+        return incomingFlirts;
+    }
+
+    UserList getIncomingEnemies() {
+        load();
+        return incomingEnemies;
+    }
+
+    UserList getMessageRecipients() {
+        load();
+        return messageRecipients;
+    }
+
     public void removeCommunity(Community community) {
+        load();
         communities.remove(community);
     }
 
+    /**
+     * Returns the posts on the user's own timeline, those that belong to no community log,
+     * oldest first. Snapshots store these, and the community posts with their communities.
+     *
+     * @return The posts.
+     */
+
+    List<Post> getTimelinePosts() {
+        load();
+        return new ArrayList<>(timeline);
+    }
+
+    /**
+     * Adds a post to the user's timeline, after every post made so far.
+     *
+     * @param message The post.
+     */
+
     public void receivePost(Message message) {
-        timeline.add(message);
+        load();
+        message.retain();
+        timeline.add(Post.of(message));
+    }
+
+    /**
+     * Moves unread posts of a community being deleted to the user's timeline, or puts back
+     * the posts of the timeline read from a snapshot.
+     *
+     * @param posts The posts, oldest first.
+     */
+
+    void keepPosts(List<Post> posts) {
+        load();
+        List<Post> merged = new ArrayList<>(timeline);
+        for (Post post : posts) {
+            post.message().retain();
+        }
+        merged.addAll(posts);
+        merged.sort(Comparator.comparingLong(Post::sequence));
+        timeline.clear();
+        timeline.addAll(merged);
     }
 }
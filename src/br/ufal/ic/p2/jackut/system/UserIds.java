@@ -0,0 +1,70 @@
+package br.ufal.ic.p2.jackut.system;
+
+import java.util.Arrays;
+
+/**
+ * Assigns dense integer IDs to the users of a database and resolves them back.
+ * <p>
+ * Relationship lists store these IDs instead of references. IDs are not reused after a user
+ * is removed, so a stale ID resolves to null rather than to another user. Registration is
+ * synchronized; lookups read the current table without locking, which is safe because an ID
+ * only reaches other threads after the table holding its user was published.
+ */
+
+final class UserIds {
+    private volatile User[] users = new User[1024];
+    private int next;
+
+    /**
+     * Gives a user the next free ID.
+     *
+     * @param user The user.
+     * @return The ID.
+     */
+
+    synchronized int register(User user) {
+        User[] table = users;
+        if (next == table.length) {
+            table = Arrays.copyOf(table, table.length * 2);
+        }
+        int id = next++;
+        table[id] = user;
+        users = table;
+        user.assignId(this, id);
+        return id;
+    }
+
+    /**
+     * Forgets a removed user.
+     *
+     * @param user The user.
+     */
+
+    synchronized void release(User user) {
+        if (user.getId() >= 0 && users[user.getId()] == user) {
+            users[user.getId()] = null;
+        }
+    }
+
+    /**
+     * Returns the user with an ID.
+     *
+     * @param id The ID.
+     * @return The user, or null if it was removed.
+     */
+
+    User get(int id) {
+        User[] table = users;
+        return id < table.length ? table[id] : null;
+    }
+
+    /**
+     * Returns the number of IDs given out so far.
+     *
+     * @return The highest ID plus one.
+     */
+
+    synchronized int size() {
+        return next;
+    }
+}
@@ -1,15 +1,175 @@
 package br.ufal.ic.p2.jackut.system;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 
-public class UserList extends ArrayList<User> implements PrintAll {
+/**
+ * A set of users that keeps the order in which they were added.
+ * <p>
+ * Users are stored by their {@link UserIds} ID in a primitive array, in insertion order, so
+ * {@link #printAll()} lists the logins in that order. Small lists are searched directly; once a
+ * list grows past {@value #INDEX_THRESHOLD} users an open-addressing table of positions is kept
+ * alongside it, so membership checks and removals take constant time. A removed user leaves a
+ * tombstone in the array, and tombstones are compacted away once they outnumber the users.
+ * Users that have no ID yet, as when the data binding API reads an old file, are kept by
+ * reference until every one of them has been registered.
+ * <p>
+ * The string built by {@link #printAll()} is kept until the list changes, since logins never do.
+ */
+
+public class UserList extends AbstractSet<User> implements PrintAll {
+    private static final int[] EMPTY = {};
+    private static final int INDEX_THRESHOLD = 16;
+    private static final int TOMBSTONE = -1;
+
+    private UserIds ids;
+    /**
+     * IDs in insertion order, with {@value #TOMBSTONE} where a user was removed.
+     */
+    private int[] order = EMPTY;
+    /**
+     * Slots of {@link #order} in use, removed ones included.
+     */
+    private int length;
+    private int size;
+    /**
+     * Position plus one in {@link #order} of the user in each slot, 0 for an empty slot;
+     * null while the list is small.
+     */
+    private int[] index;
+    private ArrayList<User> pending;
+    private String rendered;
 
     public UserList() {
         super();
     }
 
+    @Override
+    public boolean add(User user) {
+        if (!settled() || user.getId() < 0) {
+            if (pending == null) {
+                pending = new ArrayList<>(this);
+                clearIds();
+            }
+            if (pending.contains(user)) {
+                return false;
+            }
+            rendered = null;
+            return pending.add(user);
+        }
+
+        if (ids == null) {
+            ids = user.getIds();
+        }
+        int id = user.getId();
+        if (containsId(id)) {
+            return false;
+        }
+
+        if (length == order.length) {
+            if (length > 0 && size <= length / 2) {
+                compact();
+            } else {
+                order = Arrays.copyOf(order, Math.max(4, length * 2));
+            }
+        }
+        order[length++] = id;
+        size++;
+        rendered = null;
+        if (index != null && size * 2 <= index.length) {
+            insert(length - 1);
+        } else if (size > INDEX_THRESHOLD) {
+            buildIndex();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!settled()) {
+            return pending.contains(o);
+        }
+        return o instanceof User user && user.getIds() == ids && ids != null && containsId(user.getId());
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!settled()) {
+            rendered = null;
+            return pending.remove(o);
+        }
+        if (!(o instanceof User user) || user.getIds() != ids || ids == null) {
+            return false;
+        }
+
+        int position = find(user.getId());
+        if (position < 0) {
+            return false;
+        }
+        removeAt(position);
+        if (length - size > Math.max(size, INDEX_THRESHOLD)) {
+            compact();
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return settled() ? size : pending.size();
+    }
+
+    @Override
+    public void clear() {
+        clearIds();
+        pending = null;
+    }
+
+    @Override
+    public Iterator<User> iterator() {
+        if (!settled()) {
+            rendered = null;
+            return pending.iterator();
+        }
+
+        return new Iterator<>() {
+            private int next = skipAbsent(0);
+            private int last = -1;
+
+            @Override
+            public boolean hasNext() {
+                return next < length;
+            }
+
+            @Override
+            public User next() {
+                if (next >= length) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                next = skipAbsent(next + 1);
+                return ids.get(order[last]);
+            }
+
+            @Override
+            public void remove() {
+                if (last < 0) {
+                    throw new IllegalStateException();
+                }
+                removeAt(last);
+                last = -1;
+            }
+        };
+    }
+
     @Override
     public String printAll() {
+        String cached = rendered;
+        if (cached != null) {
+            return cached;
+        }
 
         if(this.isEmpty()) {
             return "{}";
@@ -29,6 +189,194 @@ public class UserList extends ArrayList<User> implements PrintAll {
 
         sb.append('}');
 
-        return sb.toString();
+        rendered = sb.toString();
+        return rendered;
+    }
+
+    /**
+     * Returns the IDs of the users in the list, in insertion order.
+     *
+     * @return A copy of the IDs.
+     */
+
+    int[] ids() {
+        if (!settled()) {
+            return pending.stream().mapToInt(User::getId).filter(id -> id >= 0).toArray();
+        }
+        int[] live = new int[size];
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (order[i] != TOMBSTONE) {
+                live[count++] = order[i];
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Returns true if the list has the user with an ID.
+     *
+     * @param id The ID.
+     * @return true if the list has the user.
+     */
+
+    boolean containsId(int id) {
+        if (!settled()) {
+            return pending.stream().anyMatch(user -> user.getId() == id);
+        }
+        return find(id) >= 0;
+    }
+
+    /**
+     * Returns the position of a user in {@link #order}.
+     *
+     * @param id The ID of the user.
+     * @return The position, or -1 if the list doesn't have the user.
+     */
+
+    private int find(int id) {
+        if (index == null) {
+            for (int i = 0; i < length; i++) {
+                if (order[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int mask = index.length - 1;
+        for (int slot = spread(id) & mask; ; slot = (slot + 1) & mask) {
+            int position = index[slot] - 1;
+            if (position < 0 || order[position] == id) {
+                return position;
+            }
+        }
+    }
+
+    /**
+     * Leaves a tombstone in place of a user. Positions of the other users don't change, so
+     * this is safe while iterating.
+     */
+
+    private void removeAt(int position) {
+        if (index != null) {
+            unindex(position);
+        }
+        order[position] = TOMBSTONE;
+        size--;
+        rendered = null;
+        while (length > 0 && order[length - 1] == TOMBSTONE) {
+            length--;
+        }
+    }
+
+    private void compact() {
+        int live = 0;
+        for (int i = 0; i < length; i++) {
+            if (order[i] != TOMBSTONE) {
+                order[live++] = order[i];
+            }
+        }
+        length = live;
+        index = null;
+        if (size > INDEX_THRESHOLD) {
+            buildIndex();
+        }
+    }
+
+    private int skipRemoved(int position) {
+        while (position < length && order[position] == TOMBSTONE) {
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * Skips tombstones and the IDs of users released since they were added, which resolve to
+     * null, so iterating never yields a deleted user.
+     */
+
+    private int skipAbsent(int position) {
+        position = skipRemoved(position);
+        while (position < length && ids.get(order[position]) == null) {
+            position = skipRemoved(position + 1);
+        }
+        return position;
+    }
+
+    private void buildIndex() {
+        index = new int[Integer.highestOneBit(size) << 2];
+        for (int i = 0; i < length; i++) {
+            if (order[i] != TOMBSTONE) {
+                insert(i);
+            }
+        }
+    }
+
+    private void insert(int position) {
+        int mask = index.length - 1;
+        int slot = spread(order[position]) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = position + 1;
+    }
+
+    /**
+     * Empties the slot of a position and moves later entries of its probe run back, so lookups
+     * never stop early at the hole.
+     */
+
+    private void unindex(int position) {
+        int mask = index.length - 1;
+        int hole = spread(order[position]) & mask;
+        while (index[hole] != position + 1) {
+            hole = (hole + 1) & mask;
+        }
+
+        for (int next = (hole + 1) & mask; index[next] != 0; next = (next + 1) & mask) {
+            int home = spread(order[index[next] - 1]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                index[hole] = index[next];
+                hole = next;
+            }
+        }
+        index[hole] = 0;
+    }
+
+    private static int spread(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void clearIds() {
+        rendered = null;
+        order = EMPTY;
+        length = 0;
+        size = 0;
+        index = null;
+    }
+
+    /**
+     * Moves the users kept by reference into the ID array once all of them have an ID.
+     *
+     * @return true if no user is kept by reference.
+     */
+
+    private boolean settled() {
+        if (pending == null) {
+            return true;
+        }
+        for (User user : pending) {
+            if (user.getId() < 0) {
+                return false;
+            }
+        }
+        ArrayList<User> users = pending;
+        pending = null;
+        for (User user : users) {
+            add(user);
+        }
+        return true;
     }
 }
@@ -0,0 +1,491 @@
+package br.ufal.ic.p2.jackut.system;
+
+import br.ufal.ic.p2.jackut.exceptions.StorageException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary log of the operations that change the database.
+ * Every record is framed as {@code [length][crc32][operation][argument count][arguments...]},
+ * so a record torn by a crash is detected and dropped on replay.
+ * <p>
+ * The file starts with a {@code JKWL} magic number and a generation, which grows every time
+ * the log is reset. A snapshot stores the {@link Position} the log had when it was written, and
+ * replay skips the records up to that position, so a crash between writing a snapshot and
+ * resetting the log doesn't apply the same operations twice.
+ * <p>
+ * Appends are group-committed: the caller that finds no flush in progress writes and
+ * syncs everything buffered so far, while concurrent callers wait for that flush instead
+ * of issuing their own. If a batch can't be written, the file is cut back to the last durable
+ * record and the log refuses every later append, since the operations of that batch were
+ * already applied in memory; the database stops instead of going on without them.
+ * <p>
+ * A closed log opens its file again when it is next written to.
+ */
+
+public class WriteAheadLog implements Closeable {
+
+    /**
+     * The operations recorded in the log. Records store the ordinal, so new operations
+     * must only be added at the end.
+     */
+
+    public enum Operation {
+        NEW_USER,
+        EDIT_PROFILE,
+        ADD_FRIEND,
+        SEND_MESSAGE,
+        READ_MESSAGE,
+        CREATE_COMMUNITY,
+        ADD_TO_COMMUNITY,
+        SEND_COMMUNITY_MESSAGE,
+        READ_POST,
+        ADD_IDOL,
+        ADD_FLIRT,
+        ADD_ENEMY,
+        DELETE_ACCOUNT
+    }
+
+    /**
+     * A record read back from the log.
+     *
+     * @param operation The operation.
+     * @param arguments The arguments of the operation, logins instead of session IDs.
+     */
+
+    public record Entry(Operation operation, String[] arguments) {
+    }
+
+    /**
+     * A point in the log: a generation and a byte offset within it. Everything before the
+     * point is part of the snapshot that stores it.
+     *
+     * @param generation The generation of the log.
+     * @param offset     The offset just after the last record covered.
+     */
+
+    public record Position(long generation, long offset) implements Comparable<Position> {
+
+        /**
+         * The position before any log, stored by snapshots written without one.
+         */
+
+        public static final Position NONE = new Position(0, 0);
+
+        @Override
+        public int compareTo(Position other) {
+            int generations = Long.compare(generation, other.generation);
+            return generations != 0 ? generations : Long.compare(offset, other.offset);
+        }
+
+        /**
+         * Returns the earlier of two positions.
+         *
+         * @param other The other position.
+         * @return This position or the other one, whichever covers less.
+         */
+
+        public Position min(Position other) {
+            return compareTo(other) <= 0 ? this : other;
+        }
+    }
+
+    static final int MAGIC = 0x4A4B574C; // "JKWL"
+    private static final int HEADER_SIZE = 12;
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final Path path;
+    private FileChannel channel;
+    private final boolean fsync;
+
+    private long generation;
+    /**
+     * Offset just after the last record appended, durable or not.
+     */
+    private long end;
+    /**
+     * Offset just after the last record known to be in the file.
+     */
+    private long durableEnd;
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private long appended;
+    private long durable;
+    private boolean flushing;
+    private boolean failed;
+
+    /**
+     * Opens the log for appending, creating the file if needed. A log the snapshot already
+     * covers entirely is started over in the generation after the snapshot's.
+     *
+     * @param path     The log file.
+     * @param fsync    Whether each commit is forced to the disk.
+     * @param snapshot The position stored in the snapshot that was loaded.
+     * @throws StorageException if the file can't be opened.
+     */
+
+    public WriteAheadLog(Path path, boolean fsync, Position snapshot) {
+        this.path = path;
+        this.fsync = fsync;
+        try {
+            long existing = readGeneration(path);
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            if (existing < Math.max(snapshot.generation(), 1)) {
+                start(snapshot.generation() + 1);
+            } else {
+                this.generation = existing;
+                this.end = channel.size();
+                this.durableEnd = end;
+            }
+        } catch (IOException e) {
+            throw new StorageException("Erro ao abrir o log de opera\u00e7\u00f5es.");
+        }
+    }
+
+    /**
+     * Reads every complete record of a log file after the position a snapshot covers. A torn
+     * or corrupted tail is truncated away.
+     *
+     * @param path     The log file.
+     * @param snapshot The position stored in the snapshot that was loaded.
+     * @param consumer Receives the records in the order they were written.
+     * @throws StorageException if the file can't be read or isn't a log.
+     */
+
+    public static void replay(Path path, Position snapshot, Consumer<Entry> consumer) {
+        long generation;
+        try {
+            generation = readGeneration(path);
+        } catch (IOException e) {
+            throw new StorageException("Erro ao ler o log de opera\u00e7\u00f5es.");
+        }
+        if (generation == 0 || generation < snapshot.generation()) {
+            return;
+        }
+
+        long size = path.toFile().length();
+        long valid = HEADER_SIZE;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path.toFile())))) {
+            in.skipNBytes(HEADER_SIZE);
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException end) {
+                    break;
+                }
+
+                int checksum = in.readInt();
+                if (length < 0 || valid + 8 + length > size) {
+                    break;
+                }
+
+                byte[] payload = new byte[length];
+                try {
+                    in.readFully(payload);
+                } catch (EOFException torn) {
+                    break;
+                }
+
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                valid += 8 + length;
+                if (generation > snapshot.generation() || valid > snapshot.offset()) {
+                    consumer.accept(decode(payload));
+                }
+            }
+        } catch (EOFException torn) {
+            // the length was written but the checksum wasn't
+        } catch (IOException e) {
+            throw new StorageException("Erro ao ler o log de opera\u00e7\u00f5es.");
+        }
+
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            if (file.size() > valid) {
+                file.truncate(valid);
+            }
+        } catch (IOException e) {
+            throw new StorageException("Erro ao ler o log de opera\u00e7\u00f5es.");
+        }
+    }
+
+    /**
+     * Returns the generation of a log file.
+     *
+     * @param path The log file.
+     * @return The generation, or 0 if the file is missing or too short to hold a header.
+     * @throws StorageException if the file doesn't start with the header of a log.
+     */
+
+    private static long readGeneration(Path path) throws IOException {
+        if (!path.toFile().exists() || path.toFile().length() < HEADER_SIZE) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(path.toFile()))) {
+            if (in.readInt() != MAGIC) {
+                throw new StorageException("Formato do log de opera\u00e7\u00f5es inv\u00e1lido.");
+            }
+            return in.readLong();
+        }
+    }
+
+    /**
+     * Appends a record and returns once it is durable.
+     *
+     * @param operation The operation.
+     * @param arguments The arguments of the operation.
+     * @throws StorageException if the record can't be written.
+     */
+
+    public void append(Operation operation, String... arguments) {
+        byte[] payload = encode(operation, arguments);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        long sequence;
+        synchronized (this) {
+            DataOutputStream out = new DataOutputStream(buffer);
+            try {
+                out.writeInt(payload.length);
+                out.writeInt((int) crc.getValue());
+                out.write(payload);
+            } catch (IOException e) {
+                throw new StorageException("Erro ao gravar o log de opera\u00e7\u00f5es.");
+            }
+            sequence = ++appended;
+            end += 8 + payload.length;
+        }
+
+        commit(sequence);
+    }
+
+    /**
+     * Waits until the record with the given sequence number is durable, flushing the
+     * buffered records itself if no other caller is doing it.
+     */
+
+    private void commit(long sequence) {
+        while (true) {
+            byte[] batch;
+            long upTo;
+            long upToEnd;
+            FileChannel file;
+
+            synchronized (this) {
+                while (flushing && durable < sequence) {
+                    awaitFlush();
+                }
+                if (failed) {
+                    throw new StorageException("Erro ao gravar o log de opera\u00e7\u00f5es.");
+                }
+                if (durable >= sequence) {
+                    return;
+                }
+                file = channel();
+                flushing = true;
+                batch = buffer.toByteArray();
+                buffer = new ByteArrayOutputStream();
+                upTo = appended;
+                upToEnd = end;
+            }
+
+            boolean written = false;
+            try {
+                ByteBuffer data = ByteBuffer.wrap(batch);
+                while (data.hasRemaining()) {
+                    file.write(data);
+                }
+                if (fsync) {
+                    file.force(false);
+                }
+                written = true;
+            } catch (IOException e) {
+                throw new StorageException("Erro ao gravar o log de opera\u00e7\u00f5es.");
+            } finally {
+                synchronized (this) {
+                    if (written) {
+                        durable = upTo;
+                        durableEnd = upToEnd;
+                    } else {
+                        failed = true;
+                        discardTail(file);
+                    }
+                    flushing = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Cuts the file back to the last durable record, so the records of a failed batch whose
+     * callers were told it failed aren't replayed later. Replay drops a torn tail anyway, so a
+     * failure here is ignored.
+     */
+
+    private void discardTail(FileChannel file) {
+        try {
+            file.truncate(durableEnd);
+        } catch (IOException e) {
+            // replay drops what can't be read back
+        }
+    }
+
+    /**
+     * Returns the channel of the file, opening it again if the log was closed. Called with
+     * the monitor held while no batch is being written.
+     */
+
+    private FileChannel channel() {
+        if (!channel.isOpen()) {
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                throw new StorageException("Erro ao abrir o log de opera\u00e7\u00f5es.");
+            }
+        }
+        return channel;
+    }
+
+    private void awaitFlush() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the size of the log file in bytes.
+     *
+     * @return The size of the log.
+     */
+
+    public synchronized long size() {
+        try {
+            return channel().size();
+        } catch (IOException e) {
+            throw new StorageException("Erro ao ler o log de opera\u00e7\u00f5es.");
+        }
+    }
+
+    /**
+     * Returns the position after the last record appended. A snapshot written while no
+     * operation can be appended stores it.
+     *
+     * @return The position.
+     */
+
+    public synchronized Position position() {
+        return new Position(generation, end);
+    }
+
+    /**
+     * Discards every record, after a snapshot made them redundant, and starts the next generation.
+     *
+     * @throws StorageException if the file can't be truncated.
+     */
+
+    public synchronized void reset() {
+        while (flushing) {
+            awaitFlush();
+        }
+        buffer = new ByteArrayOutputStream();
+        durable = appended;
+        try {
+            start(generation + 1);
+        } catch (IOException e) {
+            throw new StorageException("Erro ao gravar o log de opera\u00e7\u00f5es.");
+        }
+    }
+
+    /**
+     * Empties the file and writes the header of a generation.
+     */
+
+    private void start(long generation) throws IOException {
+        FileChannel file = channel();
+        file.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putLong(generation).flip();
+        while (header.hasRemaining()) {
+            file.write(header);
+        }
+        if (fsync) {
+            file.force(false);
+        }
+        this.generation = generation;
+        this.end = HEADER_SIZE;
+        this.durableEnd = HEADER_SIZE;
+    }
+
+    /**
+     * Closes the log file, once the batch being written, if any, is done. Appending afterwards
+     * opens it again.
+     */
+
+    @Override
+    public synchronized void close() {
+        while (flushing) {
+            awaitFlush();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new StorageException("Erro ao fechar o log de opera\u00e7\u00f5es.");
+        }
+    }
+
+    /**
+     * Returns the log file.
+     *
+     * @return The path of the log.
+     */
+
+    public Path getPath() {
+        return path;
+    }
+
+    private static byte[] encode(Operation operation, String[] arguments) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(operation.ordinal());
+            out.writeByte(arguments.length);
+            for (String argument : arguments) {
+                byte[] text = argument != null ? argument.getBytes(StandardCharsets.UTF_8) : null;
+                out.writeInt(text != null ? text.length : -1);
+                if (text != null) {
+                    out.write(text);
+                }
+            }
+        } catch (IOException e) {
+            throw new StorageException("Erro ao gravar o log de opera\u00e7\u00f5es.");
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Entry decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        Operation operation = OPERATIONS[in.readUnsignedByte()];
+        String[] arguments = new String[in.readUnsignedByte()];
+        for (int i = 0; i < arguments.length; i++) {
+            int length = in.readInt();
+            if (length >= 0) {
+                byte[] text = new byte[length];
+                in.readFully(text);
+                arguments[i] = new String(text, StandardCharsets.UTF_8);
+            }
+        }
+        return new Entry(operation, arguments);
+    }
+}